@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ChoiceState} under the notify patterns of a real list.
+ * <p>
+ * The selection is runs of 1 to 16 checked items split by gaps of 1 to 16 items,
+ * so about half of the items are checked.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChoiceStateBenchmark {
+
+  private static final int PROBE_COUNT = 1024;
+  /** Notifications of an adapter in a frame **/
+  private static final int BURST_SIZE = 32;
+
+  /** The count of checked items **/
+  @Param({"1000", "100000", "1000000"})
+  public int selectionSize;
+
+  /** ChoiceState.STORAGE_XXX: adaptive, sparse, runs, tree, bitset **/
+  @Param({"0", "1", "2", "3", "4"})
+  public int storage;
+
+  private int itemCount;
+  private ChoiceState state;
+  private int[] probes;
+  private int probeIndex;
+  private int scrollPosition;
+
+  @Setup
+  public void setup() {
+    state = newSelection(storage, selectionSize);
+    itemCount = lastPosition(state) + 1;
+    Random random = new Random(1);
+    probes = new int[PROBE_COUNT];
+    for (int i = 0; i < PROBE_COUNT; i++) {
+      probes[i] = random.nextInt(itemCount);
+    }
+  }
+
+  static ChoiceState newSelection(int storage, int selectionSize) {
+    ChoiceState state = new ChoiceState(storage);
+    Random random = new Random(0);
+    int position = 0;
+    int checked = 0;
+    while (checked < selectionSize) {
+      position += 1 + random.nextInt(16);
+      int length = Math.min(1 + random.nextInt(16), selectionSize - checked);
+      state.setRangeChecked(position, length, true);
+      position += length;
+      checked += length;
+    }
+    return state;
+  }
+
+  private static int lastPosition(ChoiceState state) {
+    int[] positions = state.getCheckedItemPositions();
+    return positions[positions.length - 1];
+  }
+
+  private int nextProbe() {
+    return probes[probeIndex++ & (PROBE_COUNT - 1)];
+  }
+
+  @Benchmark
+  public boolean isChecked() {
+    return state.isChecked(nextProbe());
+  }
+
+  @Benchmark
+  public boolean isCheckedWhileScrolling() {
+    // Rows are bound one after another
+    if (++scrollPosition == itemCount) {
+      scrollPosition = 0;
+    }
+    return state.isChecked(scrollPosition);
+  }
+
+  @Benchmark
+  public void toggle() {
+    int position = nextProbe();
+    state.setChecked(position, !state.isChecked(position));
+  }
+
+  @Benchmark
+  public boolean insertAtTop() {
+    // Remove it again to keep the selection the same
+    state.onItemRangeInserted(0, 1);
+    return state.onItemRangeRemoved(0, 1);
+  }
+
+  @Benchmark
+  public boolean moveFirstToLast() {
+    state.onItemRangeMoved(0, itemCount - 1);
+    return state.onItemRangeMoved(itemCount - 1, 0);
+  }
+
+  @Benchmark
+  public int[] getCheckedItemPositions() {
+    return state.getCheckedItemPositions();
+  }
+
+  @Benchmark
+  public boolean bulkRemove(Fresh fresh) {
+    // Remove the middle half
+    return fresh.state.onItemRangeRemoved(fresh.itemCount / 4, fresh.itemCount / 2);
+  }
+
+  @Benchmark
+  public int checkAll(Fresh fresh) {
+    return fresh.state.checkAll(fresh.itemCount);
+  }
+
+  @Benchmark
+  public boolean insertBurst(Fresh fresh) {
+    boolean changed = false;
+    for (int i = 0; i < BURST_SIZE; i++) {
+      changed |= fresh.state.onItemRangeInserted(probes[i], 1);
+    }
+    return changed;
+  }
+
+  @Benchmark
+  public boolean insertBurstCoalesced(Fresh fresh) {
+    // What EasyRecyclerView.setCoalesceAdapterUpdates(true) does
+    PositionMapping mapping = new PositionMapping();
+    for (int i = 0; i < BURST_SIZE; i++) {
+      mapping.onItemRangeInserted(probes[i], 1);
+    }
+    return fresh.state.applyMapping(mapping);
+  }
+
+  /**
+   * A new selection for each invocation, for benchmarks which destroy it.
+   */
+  @State(Scope.Thread)
+  public static class Fresh {
+
+    ChoiceState state;
+    int itemCount;
+
+    @Setup(Level.Invocation)
+    public void setup(ChoiceStateBenchmark benchmark) {
+      state = newSelection(benchmark.storage, benchmark.selectionSize);
+      itemCount = benchmark.itemCount;
+    }
+  }
+}
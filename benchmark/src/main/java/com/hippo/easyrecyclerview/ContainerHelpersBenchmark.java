@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ContainerHelpers} on sorted arrays of checked positions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContainerHelpersBenchmark {
+
+  private static final int PROBE_COUNT = 1024;
+
+  @Param({"1000", "100000", "1000000"})
+  public int size;
+
+  /** Even numbers, with spare capacity **/
+  private int[] array;
+  /** Even numbers, without spare capacity **/
+  private int[] fullArray;
+  private int[] probes;
+  private int probeIndex;
+
+  @Setup
+  public void setup() {
+    array = new int[size + 1];
+    fullArray = new int[size];
+    for (int i = 0; i < size; i++) {
+      array[i] = i * 2;
+      fullArray[i] = i * 2;
+    }
+    Random random = new Random(1);
+    probes = new int[PROBE_COUNT];
+    for (int i = 0; i < PROBE_COUNT; i++) {
+      probes[i] = random.nextInt(size * 2);
+    }
+  }
+
+  @Benchmark
+  public int binarySearch() {
+    return ContainerHelpers.binarySearch(array, size, probes[probeIndex++ & (PROBE_COUNT - 1)]);
+  }
+
+  @Benchmark
+  public int binarySearchClassic() {
+    return classicBinarySearch(array, size, probes[probeIndex++ & (PROBE_COUNT - 1)]);
+  }
+
+  // The search ContainerHelpers used before it became branch-free, the baseline
+  private static int classicBinarySearch(int[] array, int size, int value) {
+    int lo = 0;
+    int hi = size - 1;
+
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final int midVal = array[mid];
+
+      if (midVal < value) {
+        lo = mid + 1;
+      } else if (midVal > value) {
+        hi = mid - 1;
+      } else {
+        return mid;  // value found
+      }
+    }
+    return ~lo;  // value not present
+  }
+
+  @Benchmark
+  public int[] insertAtTop() {
+    int[] result = ContainerHelpers.insert(array, size, 0, -1);
+    // Remove it again
+    System.arraycopy(array, 1, array, 0, size);
+    return result;
+  }
+
+  @Benchmark
+  public int[] insertAtTopGrow() {
+    // The array is full, so it allocates and copies every time
+    return ContainerHelpers.insert(fullArray, size, 0, -1);
+  }
+}
@@ -67,7 +67,7 @@ public class MainActivity extends Activity {
       }
     });
 
-    recyclerView.setChoiceModeListener(new EasyRecyclerView.ChoiceModeListener() {
+    recyclerView.setChoiceModeListener(new EasyRecyclerView.BatchChoiceModeListener() {
 
       private ActionMode actionMode;
 
@@ -122,6 +122,11 @@ public class MainActivity extends Activity {
         Log.d(LOG_TAG, "onItemCheckedStateChanged position=" + position + " id=" + id + " checked=" + checked);
       }
 
+      @Override
+      public void onItemRangeCheckedStateChanged(EasyRecyclerView view, int positionStart, int itemCount, boolean checked) {
+        Log.d(LOG_TAG, "onItemRangeCheckedStateChanged positionStart=" + positionStart + " itemCount=" + itemCount + " checked=" + checked);
+      }
+
       @Override
       public void onItemsCheckedStateChanged(EasyRecyclerView view) {
         Log.d(LOG_TAG, "onItemsCheckedStateChanged");
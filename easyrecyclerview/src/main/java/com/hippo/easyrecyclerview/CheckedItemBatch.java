@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import android.util.Log;
+
+/**
+ * A batch of checked state changes, built on any thread and applied on the main thread
+ * by {@link EasyRecyclerView#postCheckedItemBatch(CheckedItemBatch)}.
+ * <p>
+ * Workers compute a selection, like checking all unread items of a large dataset,
+ * each in its own batch without locking, then post them. All batches posted before
+ * the main thread gets to them are applied together: on-screen views are refreshed once and
+ * {@link EasyRecyclerView.ChoiceModeListener#onItemsCheckedStateChanged(EasyRecyclerView)}
+ * is called once, without per-item callbacks.
+ * <p>
+ * A batch itself isn't thread-safe, build it on one thread. It can't be changed after posting.
+ * Changes are applied in the order they are made. Positions are positions in the adapter
+ * when the batch is applied, those out of the item count are ignored.
+ * Use ids if the data might change in between.
+ */
+public final class CheckedItemBatch {
+
+  private static final String LOG_TAG = CheckedItemBatch.class.getSimpleName();
+
+  private static final int OP_CHECK = 0;
+  private static final int OP_UNCHECK = 1;
+  private static final int OP_CHECK_IDS = 2;
+  private static final int OP_UNCHECK_IDS = 3;
+  private static final int OP_CLEAR = 4;
+
+  private static final int OP_SIZE = 3;
+
+  // Each op is three ints: op, position start and item count,
+  // or op, index in ids and id count
+  private int[] ops = new int[OP_SIZE * 4];
+  private int opSize;
+  private long[] ids = new long[8];
+  private int idSize;
+
+  private boolean posted;
+
+  // Positions whose checked state might change in applyTo()
+  int dirtyStart;
+  int dirtyEnd;
+
+  /**
+   * Sets the checked state of the specified position.
+   *
+   * @throws IllegalStateException if the batch has been posted, or the position is negative
+   */
+  public void setItemChecked(int position, boolean value) {
+    setItemsChecked(position, 1, value);
+  }
+
+  /**
+   * Sets the checked state of positions in {@code [positionStart, positionStart + itemCount)}.
+   * Consecutive positions set one by one are kept as one range.
+   *
+   * @throws IllegalStateException if the batch has been posted, or the range is negative
+   */
+  public void setItemsChecked(int positionStart, int itemCount, boolean value) {
+    checkNotPosted();
+    if (positionStart < 0 || itemCount < 0) {
+      throw new IllegalStateException("Out of range: positionStart = " + positionStart
+          + ", itemCount = " + itemCount);
+    }
+    if (itemCount == 0) {
+      return;
+    }
+
+    int op = value ? OP_CHECK : OP_UNCHECK;
+    int last = opSize - OP_SIZE;
+    if (last >= 0 && ops[last] == op
+        && ops[last + 1] + (long) ops[last + 2] == positionStart
+        && (long) positionStart + itemCount <= Integer.MAX_VALUE) {
+      ops[last + 2] += itemCount;
+    } else {
+      addOp(op, positionStart, itemCount);
+    }
+  }
+
+  /**
+   * Sets the checked state of the item of the id. The adapter must have stable ids.
+   * For choice storages except {@link EasyRecyclerView#CHOICE_STORAGE_STABLE_IDS},
+   * applying ids scans ids of all items once for each run of ids set to the same state.
+   *
+   * @throws IllegalStateException if the batch has been posted
+   */
+  public void setItemCheckedById(long id, boolean value) {
+    checkNotPosted();
+
+    if (idSize == ids.length) {
+      long[] newIds = new long[ContainerHelpers.growSize(idSize)];
+      System.arraycopy(ids, 0, newIds, 0, idSize);
+      ids = newIds;
+    }
+    ids[idSize++] = id;
+
+    int op = value ? OP_CHECK_IDS : OP_UNCHECK_IDS;
+    int last = opSize - OP_SIZE;
+    if (last >= 0 && ops[last] == op) {
+      // Ids of an op are always the last ones
+      ops[last + 2]++;
+    } else {
+      addOp(op, idSize - 1, 1);
+    }
+  }
+
+  /**
+   * Unchecks all items before the changes made after it.
+   * Changes made before it are dropped.
+   *
+   * @throws IllegalStateException if the batch has been posted
+   */
+  public void clearAll() {
+    checkNotPosted();
+    opSize = 0;
+    idSize = 0;
+    addOp(OP_CLEAR, 0, 0);
+  }
+
+  /**
+   * Returns {@code true} if no change is made.
+   */
+  public boolean isEmpty() {
+    return opSize == 0;
+  }
+
+  private void checkNotPosted() {
+    if (posted) {
+      throw new IllegalStateException("Can't change a posted batch");
+    }
+  }
+
+  private void addOp(int op, int arg1, int arg2) {
+    if (opSize == ops.length) {
+      int[] newOps = new int[ContainerHelpers.growSize(opSize / OP_SIZE) * OP_SIZE];
+      System.arraycopy(ops, 0, newOps, 0, opSize);
+      ops = newOps;
+    }
+    ops[opSize] = op;
+    ops[opSize + 1] = arg1;
+    ops[opSize + 2] = arg2;
+    opSize += OP_SIZE;
+  }
+
+  /**
+   * Marks it posted.
+   *
+   * @throws IllegalStateException if it has been posted
+   */
+  void markPosted() {
+    checkNotPosted();
+    posted = true;
+  }
+
+  /**
+   * Applies the changes to the state, on the main thread.
+   * Returns {@code true} if any checked state changes,
+   * affected positions are in {@code [dirtyStart, dirtyEnd)}.
+   */
+  boolean applyTo(ChoiceState state, ItemIds adapter) {
+    int itemCount = adapter.getItemCount();
+    boolean changed = false;
+    dirtyStart = Integer.MAX_VALUE;
+    dirtyEnd = 0;
+
+    for (int i = 0; i < opSize; i += OP_SIZE) {
+      int op = ops[i];
+      switch (op) {
+        case OP_CLEAR:
+          if (state.getCheckedItemCount() != 0) {
+            state.clear();
+            changed = true;
+            markDirty(0, Integer.MAX_VALUE);
+          }
+          break;
+        case OP_CHECK:
+        case OP_UNCHECK: {
+          int start = ops[i + 1];
+          int end = (int) Math.min((long) start + ops[i + 2], itemCount);
+          if (start < end && state.setRangeChecked(start, end - start, op == OP_CHECK) != 0) {
+            changed = true;
+            markDirty(start, end);
+          }
+          break;
+        }
+        case OP_CHECK_IDS:
+        case OP_UNCHECK_IDS:
+          if (!adapter.hasStableIds()) {
+            Log.w(LOG_TAG, "Ignore ids, the adapter doesn't have stable ids");
+          } else if (applyIds(state, adapter, itemCount, ops[i + 1], ops[i + 2],
+              op == OP_CHECK_IDS)) {
+            changed = true;
+          }
+          break;
+      }
+    }
+
+    return changed;
+  }
+
+  private boolean applyIds(ChoiceState state, ItemIds adapter, int itemCount,
+      int index, int count, boolean value) {
+    boolean changed = false;
+    if (state instanceof IdChoiceState) {
+      IdChoiceState idState = (IdChoiceState) state;
+      for (int i = index, n = index + count; i < n; i++) {
+        if (idState.setCheckedById(ids[i], value)) {
+          changed = true;
+        }
+      }
+      if (changed) {
+        // Positions of the ids are unknown
+        markDirty(0, Integer.MAX_VALUE);
+      }
+    } else {
+      // One scan for all ids
+      LongHashSet set = new LongHashSet(count);
+      for (int i = index, n = index + count; i < n; i++) {
+        set.add(ids[i]);
+      }
+      for (int position = 0; position < itemCount; position++) {
+        if (set.contains(adapter.getItemId(position)) && state.isChecked(position) != value) {
+          state.setChecked(position, value);
+          changed = true;
+          markDirty(position, position + 1);
+        }
+      }
+    }
+    return changed;
+  }
+
+  private void markDirty(int start, int end) {
+    dirtyStart = Math.min(dirtyStart, start);
+    dirtyEnd = Math.max(dirtyEnd, end);
+  }
+}
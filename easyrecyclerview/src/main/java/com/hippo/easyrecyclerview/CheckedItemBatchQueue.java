@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Posted {@link CheckedItemBatch}es waiting for the main thread, lock-free.
+ * A post asks for a drain only if no drain is pending,
+ * so a burst of posts is applied in one drain.
+ */
+class CheckedItemBatchQueue {
+
+  private final ConcurrentLinkedQueue<CheckedItemBatch> batches = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  // Positions whose checked state might change in applyTo()
+  int dirtyStart;
+  int dirtyEnd;
+
+  /**
+   * Posts the batch, on any thread. Returns {@code true} if the caller must
+   * schedule {@link #applyTo(ChoiceState, ItemIds)} or {@link #clear()} on the main thread.
+   *
+   * @throws IllegalStateException if the batch has been posted
+   */
+  public boolean post(CheckedItemBatch batch) {
+    batch.markPosted();
+    batches.offer(batch);
+    return scheduled.compareAndSet(false, true);
+  }
+
+  /**
+   * Applies all posted batches in order, on the main thread.
+   * Returns {@code true} if any checked state changes,
+   * affected positions are in {@code [dirtyStart, dirtyEnd)}.
+   */
+  public boolean applyTo(ChoiceState state, ItemIds items) {
+    // Batches posted from now on need another drain
+    scheduled.set(false);
+
+    boolean changed = false;
+    dirtyStart = Integer.MAX_VALUE;
+    dirtyEnd = 0;
+    CheckedItemBatch batch;
+    while ((batch = batches.poll()) != null) {
+      if (batch.applyTo(state, items)) {
+        changed = true;
+        dirtyStart = Math.min(dirtyStart, batch.dirtyStart);
+        dirtyEnd = Math.max(dirtyEnd, batch.dirtyEnd);
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Drops all posted batches, on the main thread.
+   * Returns {@code true} if any batch is dropped.
+   */
+  public boolean clear() {
+    scheduled.set(false);
+    boolean dropped = false;
+    while (batches.poll() != null) {
+      dropped = true;
+    }
+    return dropped;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+/**
+ * An immutable snapshot of checked items, from {@link EasyRecyclerView#getCheckedItemSnapshot()}.
+ * <p>
+ * Taking it is {@code O(1)}, the choice state copies its storage
+ * the next time it changes. It never changes, checking items or
+ * {@code Adapter.notifyXXX()} after taking it don't affect it.
+ * So it can be read from any thread, like a background executor deleting checked rows.
+ * <p>
+ * It keeps positions, or ids for {@link EasyRecyclerView#CHOICE_STORAGE_STABLE_IDS}.
+ */
+public final class CheckedItemSnapshot {
+
+  private final PositionSet positions;
+  private final LongHashSet ids;
+
+  CheckedItemSnapshot(PositionSet positions) {
+    this.positions = positions;
+    this.ids = null;
+  }
+
+  CheckedItemSnapshot(LongHashSet ids) {
+    this.positions = null;
+    this.ids = ids;
+  }
+
+  /**
+   * Returns {@code true} if it keeps ids instead of positions.
+   */
+  public boolean hasIds() {
+    return ids != null;
+  }
+
+  /**
+   * Returns the count of checked items.
+   */
+  public int getCheckedItemCount() {
+    return positions != null ? positions.size() : ids.size();
+  }
+
+  /**
+   * Returns {@code true} if the item in the position was checked.
+   *
+   * @throws IllegalStateException if it keeps ids
+   */
+  public boolean isChecked(int position) {
+    return positions().contains(position);
+  }
+
+  /**
+   * Returns {@code true} if the item of the id was checked.
+   *
+   * @throws IllegalStateException if it keeps positions
+   */
+  public boolean isCheckedById(long id) {
+    return ids().contains(id);
+  }
+
+  /**
+   * Returns the count of checked items in {@code [positionStart, positionStart + itemCount)}.
+   *
+   * @throws IllegalStateException if it keeps ids
+   */
+  public int getCheckedItemCount(int positionStart, int itemCount) {
+    return positions().countRange(positionStart,
+        positionStart + Math.min(itemCount, Integer.MAX_VALUE - positionStart));
+  }
+
+  /**
+   * Returns positions of checked items in ascending order.
+   *
+   * @throws IllegalStateException if it keeps ids
+   */
+  public int[] getCheckedItemPositions() {
+    return positions().toArray();
+  }
+
+  /**
+   * Returns ids of checked items in no particular order.
+   *
+   * @throws IllegalStateException if it keeps positions
+   */
+  public long[] getCheckedItemIds() {
+    return ids().toArray();
+  }
+
+  /**
+   * Calls the callback for each checked position in ascending order.
+   *
+   * @throws IllegalStateException if it keeps ids
+   */
+  public void forEachCheckedItem(EasyRecyclerView.CheckedItemCallback callback) {
+    PositionSet set = positions();
+    int start = set.ceiling(0);
+    while (start != -1) {
+      int end = set.runEnd(start);
+      for (int position = start; position < end; position++) {
+        callback.onCheckedItem(position);
+      }
+      start = set.ceiling(end);
+    }
+  }
+
+  /**
+   * Calls the callback for each run of consecutive checked positions in ascending order.
+   *
+   * @throws IllegalStateException if it keeps ids
+   */
+  public void forEachCheckedRange(EasyRecyclerView.CheckedRangeCallback callback) {
+    PositionSet set = positions();
+    int start = set.ceiling(0);
+    while (start != -1) {
+      int end = set.runEnd(start);
+      callback.onCheckedRange(start, end - start);
+      start = set.ceiling(end);
+    }
+  }
+
+  private PositionSet positions() {
+    if (positions == null) {
+      throw new IllegalStateException("It keeps ids, not positions");
+    }
+    return positions;
+  }
+
+  private LongHashSet ids() {
+    if (ids == null) {
+      throw new IllegalStateException("It keeps positions, not ids");
+    }
+    return ids;
+  }
+}
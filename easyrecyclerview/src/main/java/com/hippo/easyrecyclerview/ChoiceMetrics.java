@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+/**
+ * A {@link EasyRecyclerView.ChoiceMetricsSink} which keeps counters, timings
+ * and a histogram of checked item counts in primitive fields, nothing is allocated.
+ * <p>
+ * Set it by {@link EasyRecyclerView#setChoiceMetricsSink(EasyRecyclerView.ChoiceMetricsSink)},
+ * read it on the main thread, and send it to your own reporting.
+ */
+public final class ChoiceMetrics implements EasyRecyclerView.ChoiceMetricsSink {
+
+  /** Bucket {@code 0} for no checked item, bucket {@code i} for {@code [2^(i-1), 2^i)} **/
+  public static final int HISTOGRAM_BUCKET_COUNT = 32;
+
+  private final long[] updateCounts = new long[UPDATE_TYPE_COUNT];
+  private final long[] updateNanos = new long[UPDATE_TYPE_COUNT];
+  private long queuedUpdateCount;
+  private long maxTransformNanos;
+
+  private long queueApplyCount;
+  private long queueApplyNanos;
+
+  private long viewRefreshCount;
+  private long refreshedViewCount;
+  private long viewRefreshNanos;
+
+  private long checkedStateChangeCount;
+  private long listenerCallbackCount;
+  private final long[] checkedCountHistogram = new long[HISTOGRAM_BUCKET_COUNT];
+
+  @Override
+  public void onAdapterUpdate(int update, long transformNanos) {
+    updateCounts[update]++;
+    if (transformNanos < 0) {
+      queuedUpdateCount++;
+    } else {
+      updateNanos[update] += transformNanos;
+      maxTransformNanos = Math.max(maxTransformNanos, transformNanos);
+    }
+  }
+
+  @Override
+  public void onQueueApplied(long transformNanos) {
+    queueApplyCount++;
+    queueApplyNanos += transformNanos;
+    maxTransformNanos = Math.max(maxTransformNanos, transformNanos);
+  }
+
+  @Override
+  public void onViewsRefreshed(int viewCount, long nanos) {
+    viewRefreshCount++;
+    refreshedViewCount += viewCount;
+    viewRefreshNanos += nanos;
+  }
+
+  @Override
+  public void onCheckedStateChanged(int checkedItemCount, int listenerCallbacks) {
+    checkedStateChangeCount++;
+    listenerCallbackCount += listenerCallbacks;
+    checkedCountHistogram[bucketOf(checkedItemCount)]++;
+  }
+
+  /**
+   * Returns the histogram bucket of the checked item count.
+   */
+  public static int bucketOf(int checkedItemCount) {
+    return 32 - Integer.numberOfLeadingZeros(checkedItemCount);
+  }
+
+  /**
+   * Returns the count of adapter updates in choice mode,
+   * {@code update} is one of {@code ChoiceMetricsSink.UPDATE_XXX}.
+   */
+  public long getUpdateCount(int update) {
+    return updateCounts[update];
+  }
+
+  /**
+   * Returns nanoseconds taken to transform checked state for the adapter updates,
+   * not including queued ones.
+   */
+  public long getUpdateNanos(int update) {
+    return updateNanos[update];
+  }
+
+  /**
+   * Returns the count of adapter updates queued instead of applied right away.
+   */
+  public long getQueuedUpdateCount() {
+    return queuedUpdateCount;
+  }
+
+  /**
+   * Returns the longest time taken by one transform of checked state, in nanoseconds.
+   */
+  public long getMaxTransformNanos() {
+    return maxTransformNanos;
+  }
+
+  /**
+   * Returns how many times queued updates or batches are applied.
+   */
+  public long getQueueApplyCount() {
+    return queueApplyCount;
+  }
+
+  public long getQueueApplyNanos() {
+    return queueApplyNanos;
+  }
+
+  /**
+   * Returns how many times on-screen views are refreshed.
+   */
+  public long getViewRefreshCount() {
+    return viewRefreshCount;
+  }
+
+  /**
+   * Returns the count of views refreshed in all refreshes.
+   */
+  public long getRefreshedViewCount() {
+    return refreshedViewCount;
+  }
+
+  public long getViewRefreshNanos() {
+    return viewRefreshNanos;
+  }
+
+  /**
+   * Returns how many times checked state changes.
+   */
+  public long getCheckedStateChangeCount() {
+    return checkedStateChangeCount;
+  }
+
+  /**
+   * Returns how many times {@link EasyRecyclerView.ChoiceModeListener} is called
+   * for checked state changes.
+   */
+  public long getListenerCallbackCount() {
+    return listenerCallbackCount;
+  }
+
+  /**
+   * Returns how many checked state changes end with checked item count in the bucket.
+   *
+   * @see #bucketOf(int)
+   */
+  public long getCheckedCountHistogram(int bucket) {
+    return checkedCountHistogram[bucket];
+  }
+
+  /**
+   * Clears all counters.
+   */
+  public void reset() {
+    for (int i = 0; i < UPDATE_TYPE_COUNT; i++) {
+      updateCounts[i] = 0;
+      updateNanos[i] = 0;
+    }
+    queuedUpdateCount = 0;
+    maxTransformNanos = 0;
+    queueApplyCount = 0;
+    queueApplyNanos = 0;
+    viewRefreshCount = 0;
+    refreshedViewCount = 0;
+    viewRefreshNanos = 0;
+    checkedStateChangeCount = 0;
+    listenerCallbackCount = 0;
+    for (int i = 0; i < HISTOGRAM_BUCKET_COUNT; i++) {
+      checkedCountHistogram[i] = 0;
+    }
+  }
+}
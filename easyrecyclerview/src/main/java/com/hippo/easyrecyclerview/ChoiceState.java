@@ -20,69 +20,330 @@ package com.hippo.easyrecyclerview;
  * Created by Hippo on 1/28/2017.
  */
 
-import android.os.Parcel;
-import android.support.v7.widget.RecyclerView;
-import java.util.Arrays;
-
 class ChoiceState {
 
-  /** Checked position set **/
-  private OrderedIntArray array = new OrderedIntArray();
+  /**
+   * Switches between {@link OrderedIntArray}, {@link IntervalArray}
+   * and {@link PositionBitSet} by density
+   **/
+  static final int STORAGE_ADAPTIVE = 0;
+  /** Always {@link OrderedIntArray} **/
+  static final int STORAGE_SPARSE = 1;
+  /** Always {@link IntervalArray} **/
+  static final int STORAGE_RUNS = 2;
+  /** Always {@link OffsetTree} **/
+  static final int STORAGE_TREE = 3;
+  /** Always {@link PositionBitSet} **/
+  static final int STORAGE_BITSET = 4;
+  /** Item ids instead of positions, see {@link IdChoiceState} **/
+  static final int STORAGE_STABLE_IDS = 5;
+
+  /** Don't bother runs for small sets **/
+  private static final int MIN_RUNS_SIZE = 32;
+  /** Don't bother bits for small sets **/
+  private static final int MIN_BITSET_SIZE = 256;
+  /** Fewer updates are cheaper one by one **/
+  static final int MIN_MAP_UPDATES = 4;
+
+  private final int storage;
+
+  /** Checked position set, null for {@link IdChoiceState} **/
+  PositionSet set;
+  /** The set is shared with a snapshot, copy it before writing **/
+  private boolean shared;
 
   public ChoiceState() {
-    this(new OrderedIntArray());
+    this(STORAGE_ADAPTIVE);
+  }
+
+  public ChoiceState(int storage) {
+    this(storage, newPositionSet(storage));
+  }
+
+  ChoiceState(int storage, PositionSet set) {
+    this.storage = storage;
+    this.set = set;
+  }
+
+  public ChoiceState(PositionSet set) {
+    this.storage = STORAGE_ADAPTIVE;
+    this.set = set;
+    adapt();
+  }
+
+  private static PositionSet newPositionSet(int storage) {
+    switch (storage) {
+      case STORAGE_ADAPTIVE:
+      case STORAGE_SPARSE:
+        return new OrderedIntArray();
+      case STORAGE_RUNS:
+        return new IntervalArray();
+      case STORAGE_TREE:
+        return new OffsetTree();
+      case STORAGE_BITSET:
+        return new PositionBitSet();
+      case STORAGE_STABLE_IDS:
+        throw new IllegalArgumentException("Use IdChoiceState for stable ids storage");
+      default:
+        throw new IllegalArgumentException("Invalid storage: " + storage);
+    }
+  }
+
+  /**
+   * Returns the storage type, one of {@link #STORAGE_ADAPTIVE},
+   * {@link #STORAGE_SPARSE}, {@link #STORAGE_RUNS}, {@link #STORAGE_TREE},
+   * {@link #STORAGE_BITSET} and {@link #STORAGE_STABLE_IDS}.
+   */
+  public int getStorage() {
+    return storage;
   }
 
-  public ChoiceState(OrderedIntArray array) {
-    this.array = array;
+  /**
+   * Returns {@code true} if checked positions are kept as runs now.
+   */
+  boolean isRunsMode() {
+    return set instanceof IntervalArray;
+  }
+
+  /**
+   * Returns {@code true} if checked positions are kept as bits now.
+   */
+  boolean isBitSetMode() {
+    return set instanceof PositionBitSet;
+  }
+
+  // Picks the cheaper storage for the current density.
+  // Runs cost 64 bits each, positions cost 32 bits each,
+  // bits cost 1 bit for each position up to the last checked one.
+  // The thresholds are apart to avoid converting back and forth.
+  private void adapt() {
+    if (storage != STORAGE_ADAPTIVE) {
+      return;
+    }
+
+    if (set instanceof OrderedIntArray) {
+      OrderedIntArray array = (OrderedIntArray) set;
+      int size = array.size;
+      if (size >= MIN_RUNS_SIZE && array.runCount * 4 <= size) {
+        set = new IntervalArray(array);
+      } else if (size >= MIN_BITSET_SIZE && array.array[size - 1] < size * 8) {
+        set = toBitSet(array);
+      }
+    } else if (set instanceof IntervalArray) {
+      IntervalArray intervals = (IntervalArray) set;
+      int size = intervals.size;
+      if (intervals.runCount * 2 > size) {
+        int last = intervals.runCount - 1;
+        if (size >= MIN_BITSET_SIZE && intervals.starts[last] + intervals.lengths[last] < size * 8) {
+          set = toBitSet(intervals);
+        } else {
+          set = new OrderedIntArray(intervals);
+        }
+      }
+    } else if (set instanceof PositionBitSet) {
+      PositionBitSet bits = (PositionBitSet) set;
+      if (bits.size() < MIN_BITSET_SIZE / 2 || (long) bits.size() * 64 < bits.span()) {
+        OrderedIntArray array = new OrderedIntArray(0);
+        array.array = bits.toArray();
+        array.size = array.array.length;
+        array.countRuns();
+        set = array;
+        // Maybe runs now
+        adapt();
+      }
+    }
+  }
+
+  private static PositionBitSet toBitSet(PositionSet set) {
+    PositionBitSet bits = new PositionBitSet();
+    for (int position : set.toArray()) {
+      bits.add(position);
+    }
+    return bits;
+  }
+
+  /**
+   * Returns the checked position set and stops writing to it, in {@code O(1)}.
+   * The next write copies it first. So it never changes and can be read from any thread.
+   */
+  PositionSet share() {
+    shared = true;
+    return set;
+  }
+
+  // Returns the set to write to, copies it if it's shared
+  private PositionSet writableSet() {
+    if (shared) {
+      set = set.copy();
+      shared = false;
+    }
+    return set;
   }
 
   /**
    * Returns {@code true} if the view in the position is checked.
    */
   public boolean isChecked(int position) {
-    return array.contains(position);
+    return set.contains(position);
   }
 
   /**
    * Set checked state for special position.
    */
   public void setChecked(int position, boolean checked) {
+    PositionSet writable = writableSet();
+    if (checked ? writable.add(position) : writable.remove(position)) {
+      adapt();
+    }
+  }
+
+  /**
+   * Set checked state for positions in {@code [positionStart, positionStart + itemCount)}
+   * in one pass. Returns the count of positions whose checked state changes.
+   */
+  public int setRangeChecked(int positionStart, int itemCount, boolean checked) {
+    int changed;
     if (checked) {
-      array.add(position);
+      if (storage == STORAGE_ADAPTIVE && set instanceof OrderedIntArray
+          && itemCount >= MIN_RUNS_SIZE && itemCount >= set.size()) {
+        // A large range is one run, don't fill it position by position
+        set = new IntervalArray((OrderedIntArray) set);
+        shared = false;
+      }
+      changed = writableSet().addRange(positionStart, positionStart + itemCount);
+    } else {
+      int oldSize = set.size();
+      writableSet().removeRange(positionStart, positionStart + itemCount);
+      changed = oldSize - set.size();
+    }
+    if (changed != 0) {
+      adapt();
+    }
+    return changed;
+  }
+
+  /**
+   * Checks all positions in {@code [0, itemCount)}.
+   * Returns the count of positions whose checked state changes.
+   */
+  public int checkAll(int itemCount) {
+    if (set instanceof PositionBitSet && itemCount > 0 && set.ceiling(itemCount) == -1) {
+      // O(words) instead of O(itemCount), no checked position after the items to keep
+      int changed = itemCount - set.size();
+      ((PositionBitSet) writableSet()).setAll(itemCount);
+      adapt();
+      return changed;
     } else {
-      array.remove(position);
+      return setRangeChecked(0, itemCount, true);
     }
   }
 
+  /**
+   * Checks all items checked in another {@code ChoiceState},
+   * a run of positions at a time. Returns the count of positions whose checked state changes.
+   */
+  public int addAll(ChoiceState other) {
+    int changed = 0;
+    PositionSet otherSet = other.set;
+    if (otherSet != null) {
+      int start = otherSet.ceiling(0);
+      while (start != -1) {
+        int end = otherSet.runEnd(start);
+        changed += setRangeChecked(start, end - start, true);
+        start = otherSet.ceiling(end);
+      }
+    } else {
+      for (int position : other.getCheckedItemPositions()) {
+        if (!isChecked(position)) {
+          setChecked(position, true);
+          changed++;
+        }
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Makes room for the count of checked items, before checking many items at once.
+   */
+  public void reserve(int count) {
+    writableSet().reserve(count);
+  }
+
+  /**
+   * Releases spare capacity of the storage.
+   * The storage also shrinks by itself when it's cleared or mostly unused.
+   */
+  public void trimToSize() {
+    writableSet().trimToSize();
+  }
+
+  /**
+   * Returns bytes taken by the storage, for memory accounting.
+   */
+  public long getMemoryBytes() {
+    return set.memoryBytes();
+  }
+
   /**
    * Clear check state.
    */
   public void clear() {
-    array.clear();
+    if (shared) {
+      // No need to copy what's going away
+      set = newPositionSet(storage);
+      shared = false;
+    } else {
+      set.clear();
+    }
+    adapt();
   }
 
   /**
    * Return the count of checked item.
    */
   public int getCheckedItemCount() {
-    return array.size;
+    return set.size();
+  }
+
+  /**
+   * Returns the count of checked items in {@code [positionStart, positionStart + itemCount)}.
+   */
+  public int getCheckedItemCount(int positionStart, int itemCount) {
+    return set.countRange(positionStart, positionStart + itemCount);
+  }
+
+  /**
+   * Returns the least checked position greater than or equal to the position,
+   * or {@code -1} if there is no such position.
+   */
+  public int nextCheckedPosition(int position) {
+    return set.ceiling(position);
+  }
+
+  /**
+   * Returns the end of the run of checked positions starting at the position,
+   * the least position greater than it and not checked.
+   * The position must be checked.
+   */
+  public int checkedRunEnd(int position) {
+    return set.runEnd(position);
   }
 
   /**
    * Return all position of checked item in array format.
    */
   public int[] getCheckedItemPositions() {
-    return array.toArray();
+    return set.toArray();
   }
 
   /**
-   * Calls it when {@link RecyclerView.Adapter#notifyDataSetChanged()} called.
+   * Calls it when {@code Adapter.notifyDataSetChanged()} called.
    * Returns {@code true} if check state changes.
    */
   public boolean onChanged() {
-    if (array.size != 0) {
-      array.clear();
+    if (set.size() != 0) {
+      clear();
       return true;
     } else {
       return false;
@@ -90,249 +351,101 @@ class ChoiceState {
   }
 
   /**
-   * Calls it when {@link RecyclerView.Adapter#notifyItemChanged(int)} called.
+   * Calls it when {@code Adapter.notifyItemChanged(int)} called.
    * Returns {@code true} if check state changes.
    */
   public boolean onItemRangeChanged(int positionStart, int itemCount) {
-    // Get affected position range
-    int boundLeft = array.indexOf(positionStart);
-    if (boundLeft < 0) {
-      boundLeft = ~boundLeft;
-    }
-    int boundRight = array.indexOf(positionStart + itemCount - 1);
-    if (boundRight < 0) {
-      boundRight = (~boundRight) - 1;
-    }
-    if (boundLeft > boundRight || boundLeft >= array.size) {
-      // No affected position range
+    if (writableSet().removeRange(positionStart, positionStart + itemCount)) {
+      adapt();
+      return true;
+    } else {
       return false;
     }
-
-    // Remove changed range
-    array.removeRange(boundLeft, boundRight - boundLeft + 1);
-    return true;
   }
 
   /**
-   * Calls it when {@link RecyclerView.Adapter#notifyItemInserted(int)} called.
+   * Calls it when {@code Adapter.notifyItemInserted(int)} called.
    * Returns {@code true} if check state changes.
    */
   public boolean onItemRangeInserted(int positionStart, int itemCount) {
-    int index = array.indexOf(positionStart);
-    if (index < 0) {
-      index = ~index;
-    }
-    if (index >= array.size) {
+    if (writableSet().shift(positionStart, Integer.MAX_VALUE, itemCount)) {
+      adapt();
+      return true;
+    } else {
       return false;
     }
-
-    array.increaseRange(index, array.size - index, itemCount);
-    return true;
   }
 
   /**
-   * Calls it when {@link RecyclerView.Adapter#notifyItemRemoved(int)} called.
+   * Calls it when {@code Adapter.notifyItemRemoved(int)} called.
    * Returns {@code true} if check state changes.
    */
   public boolean onItemRangeRemoved(int positionStart, int itemCount) {
-    boolean result = false;
-
-    // Get affected position range
-    int boundLeft = array.indexOf(positionStart);
-    if (boundLeft < 0) {
-      boundLeft = ~boundLeft;
-    }
-    int boundRight = array.indexOf(positionStart + itemCount - 1);
-    if (boundRight < 0) {
-      boundRight = (~boundRight) - 1;
-    }
-    if (boundLeft >= array.size) {
-      // No affected position range
-      return false;
-    }
-
+    int positionEnd = positionStart + itemCount;
     // Remove removed range
-    if (boundLeft <= boundRight) {
-      result = true;
-      array.removeRange(boundLeft, boundRight - boundLeft + 1);
-    }
-
-    //decrease following position
-    if (boundLeft < array.size) {
-      result = true;
-      array.increaseRange(boundLeft, array.size - boundLeft, -itemCount);
+    PositionSet writable = writableSet();
+    boolean result = writable.removeRange(positionStart, positionEnd);
+    // Decrease following position
+    result |= writable.shift(positionEnd, Integer.MAX_VALUE, -itemCount);
+    if (result) {
+      adapt();
     }
-
     return result;
   }
 
   /**
-   * Calls it when {@link RecyclerView.Adapter#notifyItemMoved(int, int)} called.
+   * Applies adapter updates composed in the mapping, see {@link PositionMapping}.
    * Returns {@code true} if check state changes.
    */
-  public boolean onItemRangeMoved(int fromPosition, int toPosition) {
-    boolean result = false;
-    int index;
-    int boundLeft;
-    int boundRight;
-    int diff;
-    if (fromPosition < toPosition) {
-      diff = -1;
-      boundLeft = array.indexOf(fromPosition);
-      if (boundLeft < 0) {
-        index = -1;
-        boundLeft = ~boundLeft;
-      } else {
-        index = boundLeft;
-        boundLeft += 1;
-      }
-      boundRight = array.indexOf(toPosition);
-      if (boundRight < 0) {
-        boundRight = (~boundRight) - 1;
-      }
+  public boolean applyMapping(PositionMapping mapping) {
+    if (mapping.isIdentity() || set.size() == 0) {
+      return false;
+    }
 
-      if (index != -1) {
-        result = true;
-        array.removeAt(index);
-        --boundLeft;
-        --boundRight;
-      }
-      if (boundLeft <= boundRight) {
-        result = true;
-        array.increaseRange(boundLeft, boundRight - boundLeft + 1, diff);
-      }
-      if (index != -1) {
-        result = true;
-        array.add(toPosition);
+    if (set instanceof OrderedIntArray && mapping.updateCount() >= MIN_MAP_UPDATES) {
+      // One pass instead of shifting positions for each update
+      boolean changed = ((OrderedIntArray) writableSet()).map(mapping);
+      if (changed) {
+        adapt();
       }
+      return changed;
     } else {
-      diff = 1;
-      boundLeft = array.indexOf(toPosition);
-      if (boundLeft < 0) {
-        boundLeft = ~boundLeft;
-      }
-      boundRight = array.indexOf(fromPosition);
-      if (boundRight <= 0) {
-        index = -1;
-        boundRight = (~boundRight) - 1;
-      } else {
-        index = boundRight;
-        boundRight -= 1;
-      }
-
-      if (index != -1) {
-        result = true;
-        array.removeAt(index);
-      }
-      if (boundLeft <= boundRight) {
-        result = true;
-        array.increaseRange(boundLeft, boundRight - boundLeft + 1, diff);
-      }
-      if (index != -1) {
-        result = true;
-        array.add(toPosition);
-      }
+      return mapping.replay(this);
     }
-
-    return result;
   }
 
   /**
-   * Save {@code ChoiceState} to {@code Parcel}.
+   * Returns {@code true} if the item at {@code position} is checked after
+   * the updates in {@code mapping}, without applying them. Items no position maps to,
+   * the inserted and changed ones, are checked only if {@code checkUnmapped}.
    */
-  public static void writeToParcel(ChoiceState state, Parcel out) {
-    if (state == null) {
-      out.writeInt(-1);
-    } else {
-      int size = state.array.size;
-      int[] array = state.array.array;
-      out.writeInt(state.array.size);
-      for (int i = 0; i < size; ++i) {
-        out.writeInt(array[i]);
-      }
+  public boolean isChecked(PositionMapping mapping, int position, boolean checkUnmapped) {
+    if (mapping.isIdentity()) {
+      return isChecked(position);
     }
+    int oldPosition = mapping.getOldPosition(position);
+    return oldPosition >= 0 ? isChecked(oldPosition) : checkUnmapped;
   }
 
   /**
-   * Read {@code ChoiceState} from {@code Parcel}.
+   * Calls it when {@code Adapter.notifyItemMoved(int, int)} called.
+   * Returns {@code true} if check state changes.
    */
-  public static ChoiceState readFromParcel(Parcel in) {
-    int size = in.readInt();
-    if (size == -1) {
-      return null;
-    } else {
-      OrderedIntArray array = new OrderedIntArray(size);
-      int[] a = array.array;
-      for (int i = 0; i < size; ++i) {
-        a[i] = in.readInt();
-      }
-      return new ChoiceState(array);
-    }
+  public boolean onItemRangeMoved(int fromPosition, int toPosition) {
+    return onItemRangeMoved(fromPosition, toPosition, 1);
   }
 
-  private static class OrderedIntArray {
-    private int[] array;
-    private int size;
-
-    public OrderedIntArray() {
-      this(10);
-    }
-
-    public OrderedIntArray(int initialCapacity) {
-      initialCapacity = ContainerHelpers.idealIntArraySize(initialCapacity);
-      array = new int[initialCapacity];
-      size = 0;
-    }
-
-    public void clear() {
-      size = 0;
-    }
-
-    public void add(int value) {
-      int index = ContainerHelpers.binarySearch(array, size, value);
-      if (index < 0) {
-        index = ~index;
-        array = ContainerHelpers.insert(array, size, index, value);
-        size++;
-      }
-    }
-
-    public boolean remove(int value) {
-      int index = ContainerHelpers.binarySearch(array, size, value);
-      if (index >= 0) {
-        removeAt(index);
-        return true;
-      } else {
-        return false;
-      }
-    }
-
-    public void removeAt(int index) {
-      System.arraycopy(array, index + 1, array, index, size - (index + 1));
-      size--;
-    }
-
-    public void removeRange(int index, int count) {
-      System.arraycopy(array, index + count, array, index, size - (index + count));
-      size -= count;
-    }
-
-    public int indexOf(int value) {
-      return ContainerHelpers.binarySearch(array, size, value);
-    }
-
-    public void increaseRange(int index, int count, int diff) {
-      for (int i = index, n = index + count; i < n; i++) {
-        array[i] += diff;
-      }
-    }
-
-    public int[] toArray() {
-      return Arrays.copyOfRange(array, 0, size);
-    }
-
-    public boolean contains(int value) {
-      return ContainerHelpers.binarySearch(array, size, value) >= 0;
+  /**
+   * Calls it when {@code itemCount} items are moved from {@code fromPosition}
+   * to {@code toPosition}. {@code toPosition} is the new position of the first item.
+   * Returns {@code true} if check state changes.
+   */
+  public boolean onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+    if (writableSet().move(fromPosition, toPosition, itemCount)) {
+      adapt();
+      return true;
+    } else {
+      return false;
     }
   }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Compact binary format of {@link ChoiceState}, for saved state and files.
+ * All numbers are unsigned LEB128 varints.
+ * <pre>
+ * version   {@link #VERSION}
+ * storage   one of ChoiceState.STORAGE_XXX
+ * positions run count, then for each run:
+ *           start - end of the previous run, length - 1
+ * ids       id count, then ids in ascending order:
+ *           the first one zigzag encoded, the others as the delta to the previous one
+ * </pre>
+ * A run of checked positions costs a few bytes whatever its length,
+ * a scattered position costs about two bytes.
+ */
+final class ChoiceStateCodec {
+
+  static final int VERSION = 1;
+
+  private ChoiceStateCodec() {}
+
+  /**
+   * Encodes the {@code ChoiceState} to bytes.
+   */
+  public static byte[] encode(ChoiceState state) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      write(state, out);
+    } catch (IOException e) {
+      // ByteArrayOutputStream never throws
+      throw new IllegalStateException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes bytes from {@link #encode(ChoiceState)}.
+   *
+   * @throws IllegalArgumentException if the bytes are invalid
+   */
+  public static ChoiceState decode(byte[] bytes) {
+    try {
+      return read(new ByteArrayInputStream(bytes));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid choice state", e);
+    }
+  }
+
+  /**
+   * Writes the {@code ChoiceState} to the stream.
+   */
+  public static void write(ChoiceState state, OutputStream out) throws IOException {
+    writeVarLong(out, VERSION);
+    writeVarLong(out, state.getStorage());
+
+    if (state instanceof IdChoiceState) {
+      long[] ids = ((IdChoiceState) state).getCheckedItemIds();
+      Arrays.sort(ids);
+      writeVarLong(out, ids.length);
+      long previous = 0;
+      for (int i = 0; i < ids.length; i++) {
+        long id = ids[i];
+        if (i == 0) {
+          writeVarLong(out, (id << 1) ^ (id >> 63));
+        } else {
+          // Ascending, so the delta is positive unless it overflows, which wraps back on reading
+          writeVarLong(out, id - previous);
+        }
+        previous = id;
+      }
+    } else {
+      PositionSet set = state.set;
+      int runCount = 0;
+      for (int start = set.ceiling(0); start != -1; start = set.ceiling(set.runEnd(start))) {
+        runCount++;
+      }
+      writeVarLong(out, runCount);
+      int previousEnd = 0;
+      for (int start = set.ceiling(0); start != -1; start = set.ceiling(previousEnd)) {
+        int end = set.runEnd(start);
+        writeVarLong(out, start - previousEnd);
+        writeVarLong(out, end - start - 1);
+        previousEnd = end;
+      }
+    }
+  }
+
+  /**
+   * Reads a {@code ChoiceState} written by {@link #write(ChoiceState, OutputStream)}.
+   * An {@link IdChoiceState} needs an adapter attached before use.
+   *
+   * @throws IOException if the stream fails or the data is invalid
+   */
+  public static ChoiceState read(InputStream in) throws IOException {
+    long version = readVarLong(in);
+    if (version != VERSION) {
+      throw new IOException("Unsupported choice state version: " + version);
+    }
+    int storage = readInt(in);
+
+    if (storage == ChoiceState.STORAGE_STABLE_IDS) {
+      int count = readInt(in);
+      IdChoiceState state = new IdChoiceState(null);
+      long previous = 0;
+      for (int i = 0; i < count; i++) {
+        long value = readVarLong(in);
+        long id = i == 0 ? (value >>> 1) ^ -(value & 1) : previous + value;
+        state.setCheckedById(id, true);
+        previous = id;
+      }
+      return state;
+    } else {
+      ChoiceState state;
+      try {
+        state = new ChoiceState(storage);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Invalid storage: " + storage);
+      }
+      int runCount = readInt(in);
+      long previousEnd = 0;
+      for (int i = 0; i < runCount; i++) {
+        long start = previousEnd + readVarLong(in);
+        long end = start + readVarLong(in) + 1;
+        if (end > Integer.MAX_VALUE) {
+          throw new IOException("Position out of range: " + (end - 1));
+        }
+        state.setRangeChecked((int) start, (int) (end - start), true);
+        previousEnd = end;
+      }
+      return state;
+    }
+  }
+
+  private static void writeVarLong(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long readVarLong(InputStream in) throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.read();
+      if (b == -1) {
+        throw new EOFException();
+      }
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  private static int readInt(InputStream in) throws IOException {
+    long value = readVarLong(in);
+    if (value < 0 || value > Integer.MAX_VALUE) {
+      throw new IOException("Value out of range: " + value);
+    }
+    return (int) value;
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+/**
+ * Drops clicks too soon after the last accepted click, of any item
+ * or of the same item. Items are keyed by id or position.
+ * <p>
+ * Times of recently clicked items are kept in a small ring of primitives,
+ * a click allocates nothing. An item falls out of the ring after
+ * {@link #ITEM_SLOT_COUNT} other items are clicked.
+ */
+class ClickThrottle {
+
+  static final int ITEM_SLOT_COUNT = 8;
+
+  private long interval;
+  private long itemInterval;
+
+  private boolean hasLastClick;
+  private long lastClickTime;
+
+  private final long[] itemKeys = new long[ITEM_SLOT_COUNT];
+  private final long[] itemTimes = new long[ITEM_SLOT_COUNT];
+  private int itemSize;
+  private int nextItemSlot;
+
+  /**
+   * Sets the min interval between accepted clicks of any item,
+   * and of the same item, in milliseconds. {@code 0} for no limit.
+   */
+  public void setIntervals(long interval, long itemInterval) {
+    if (interval < 0 || itemInterval < 0) {
+      throw new IllegalStateException("Negative interval: interval = " + interval
+          + ", itemInterval = " + itemInterval);
+    }
+    this.interval = interval;
+    this.itemInterval = itemInterval;
+    reset();
+  }
+
+  /**
+   * Returns {@code true} if any limit is set.
+   */
+  public boolean isEnabled() {
+    return interval != 0 || itemInterval != 0;
+  }
+
+  /**
+   * Forgets all clicks.
+   */
+  public void reset() {
+    hasLastClick = false;
+    itemSize = 0;
+    nextItemSlot = 0;
+  }
+
+  /**
+   * Returns {@code true} and records the click if it's accepted,
+   * {@code false} if it's too soon.
+   */
+  public boolean tryClick(long key, long now) {
+    if (hasLastClick && now - lastClickTime < interval) {
+      return false;
+    }
+
+    int slot = -1;
+    if (itemInterval != 0) {
+      for (int i = 0; i < itemSize; i++) {
+        if (itemKeys[i] == key) {
+          if (now - itemTimes[i] < itemInterval) {
+            return false;
+          }
+          slot = i;
+          break;
+        }
+      }
+    }
+
+    hasLastClick = true;
+    lastClickTime = now;
+    if (itemInterval != 0) {
+      if (slot == -1) {
+        // Replace the oldest one
+        slot = nextItemSlot;
+        nextItemSlot = (nextItemSlot + 1) % ITEM_SLOT_COUNT;
+        itemSize = Math.max(itemSize, slot + 1);
+        itemKeys[slot] = key;
+      }
+      itemTimes[slot] = now;
+    }
+    return true;
+  }
+}
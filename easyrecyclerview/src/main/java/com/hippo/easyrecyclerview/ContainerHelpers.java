@@ -22,6 +22,11 @@ package com.hippo.easyrecyclerview;
 
 class ContainerHelpers {
 
+  /** Galloping from a hint gives up after it, a few elements away **/
+  private static final int MAX_GALLOP_STEPS = 2;
+  /** Arrays not longer than it never shrink **/
+  private static final int MIN_SHRINK_CAPACITY = 256;
+
   public static int idealIntArraySize(int need) {
     return idealByteArraySize(need * 4) / 4;
   }
@@ -35,22 +40,90 @@ class ContainerHelpers {
   }
 
   public static int binarySearch(int[] array, int size, int value) {
-    int lo = 0;
-    int hi = size - 1;
-
-    while (lo <= hi) {
-      final int mid = (lo + hi) >>> 1;
-      final int midVal = array[mid];
-
-      if (midVal < value) {
-        lo = mid + 1;
-      } else if (midVal > value) {
-        hi = mid - 1;
-      } else {
-        return mid;  // value found
+    int index = lowerBound(array, size, value);
+    return index < size && array[index] == value ? index : ~index;
+  }
+
+  /**
+   * Returns the index of the first element greater than or equal to the value,
+   * or {@code size} if there is no such element.
+   */
+  public static int lowerBound(int[] array, int size, int value) {
+    return search(array, 0, size, value);
+  }
+
+  /**
+   * Returns the index of the first element greater than the value,
+   * or {@code size} if there is no such element.
+   */
+  public static int upperBound(int[] array, int size, int value) {
+    return search(array, 0, size, (long) value + 1);
+  }
+
+  /**
+   * Like {@link #lowerBound(int[], int, int)}, but gallops from the hint,
+   * the index of a recent result. Lookups near the hint, like positions bound
+   * one after another while scrolling, cost amortized {@code O(1)}.
+   * Lookups far from it fall back to a full search.
+   */
+  public static int lowerBound(int[] array, int size, int value, int hint) {
+    return gallop(array, size, value, hint);
+  }
+
+  /**
+   * Like {@link #upperBound(int[], int, int)}, but gallops from the hint.
+   */
+  public static int upperBound(int[] array, int size, int value, int hint) {
+    return gallop(array, size, (long) value + 1, hint);
+  }
+
+  private static int gallop(int[] array, int size, long target, int hint) {
+    if (hint < 0 || hint >= size) {
+      return search(array, 0, size, target);
+    }
+
+    if (array[hint] < target) {
+      // It's after the hint
+      int lo = hint + 1;
+      for (int i = 0, step = 1; i < MAX_GALLOP_STEPS; i++, step <<= 1) {
+        int probe = hint + step;
+        if (probe >= size || array[probe] >= target) {
+          return search(array, lo, Math.min(probe, size), target);
+        }
+        lo = probe + 1;
+      }
+      return search(array, lo, size, target);
+    } else {
+      // It's the hint or before it
+      int hi = hint;
+      for (int i = 0, step = 1; i < MAX_GALLOP_STEPS; i++, step <<= 1) {
+        int probe = hint - step;
+        if (probe < 0 || array[probe] < target) {
+          return search(array, Math.max(probe + 1, 0), hi, target);
+        }
+        hi = probe;
       }
+      return search(array, 0, hi, target);
     }
-    return ~lo;  // value not present
+  }
+
+  // Returns the index of the first element greater than or equal to target in [from, to),
+  // or to if there is no such element.
+  // It's branch-free: the loop always runs log2(n) times
+  // and the comparison becomes a mask, so random lookups never mispredict.
+  private static int search(int[] array, int from, int to, long target) {
+    int n = to - from;
+    if (n <= 0) {
+      return from;
+    }
+    int base = from;
+    while (n > 1) {
+      int half = n >>> 1;
+      // All ones if array[base + half - 1] < target
+      base += half & (int) ((array[base + half - 1] - target) >> 63);
+      n -= half;
+    }
+    return array[base] < target ? base + 1 : base;
   }
 
   public static int[] insert(int[] array, int currentSize, int index, int element) {
@@ -63,11 +136,24 @@ class ContainerHelpers {
     int[] newArray = new int[idealIntArraySize(growSize(currentSize))];
     System.arraycopy(array, 0, newArray, 0, index);
     newArray[index] = element;
-    System.arraycopy(array, index, newArray, index + 1, array.length - index);
+    System.arraycopy(array, index, newArray, index + 1, currentSize - index);
     return newArray;
   }
 
   public static int growSize(int currentSize) {
     return currentSize <= 4 ? 8 : currentSize * 2;
   }
+
+  /**
+   * Returns {@code true} if an array of the capacity holding the count of elements
+   * should shrink. Less than a quarter in use, and it shrinks to about the half by
+   * {@link #shrinkSize(int)}, so it won't grow right after shrinking.
+   */
+  public static boolean shouldShrink(int currentSize, int capacity) {
+    return capacity > MIN_SHRINK_CAPACITY && currentSize < capacity / 4;
+  }
+
+  public static int shrinkSize(int currentSize) {
+    return Math.max(currentSize * 2, MIN_SHRINK_CAPACITY);
+  }
 }
@@ -23,6 +23,8 @@ package com.hippo.easyrecyclerview;
 import android.support.v7.widget.RecyclerView;
 import android.view.View;
 import android.view.ViewGroup;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A {@code EasyAdapter} is a adapter for {@link EasyRecyclerView}.
@@ -30,12 +32,15 @@ import android.view.ViewGroup;
  * Implements {@link #onCreateViewHolder2(ViewGroup, int)}
  * instead of {@link #onCreateViewHolder(ViewGroup, int)}.
  * <p>
- * One {@code EasyAdapter} for one {@code EasyRecyclerView} only.
+ * A {@code EasyAdapter} can be attached to several {@code EasyRecyclerView}s,
+ * view holders are wired to the {@code EasyRecyclerView} which creates them.
+ * See {@link SharedRecycledViewPool} to share view holders between them.
  */
 public abstract class EasyAdapter<VH extends RecyclerView.ViewHolder>
-    extends RecyclerView.Adapter<VH> {
+    extends RecyclerView.Adapter<VH> implements ItemIds {
 
-  private EasyRecyclerView recyclerView;
+  // Only touched on the main thread
+  private final List<EasyRecyclerView> recyclerViews = new ArrayList<>(1);
 
   @Override
   public void onAttachedToRecyclerView(RecyclerView recyclerView) {
@@ -44,31 +49,36 @@ public abstract class EasyAdapter<VH extends RecyclerView.ViewHolder>
     if (!(recyclerView instanceof EasyRecyclerView)) {
       throw new IllegalStateException("EasyAdapter can only be attached to EasyRecyclerView");
     }
-    if (this.recyclerView != null) {
-      throw new IllegalStateException("The EasyAdapter is already attached a EasyRecyclerView");
-    }
-    this.recyclerView = (EasyRecyclerView) recyclerView;
+    recyclerViews.add((EasyRecyclerView) recyclerView);
   }
 
   @Override
   public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
     super.onDetachedFromRecyclerView(recyclerView);
-    this.recyclerView = null;
+    recyclerViews.remove(recyclerView);
   }
 
   @Override
   public final VH onCreateViewHolder(ViewGroup parent, int viewType) {
-    if (recyclerView == null) {
-      throw new IllegalStateException("The EasyAdapter is not attached a EasyRecyclerView");
+    if (!recyclerViews.contains(parent)) {
+      throw new IllegalStateException("The EasyAdapter is not attached the EasyRecyclerView");
     }
     VH viewHolder = onCreateViewHolder2(parent, viewType);
-    View view = viewHolder.itemView;
-    view.setOnClickListener(recyclerView.itemOnClickListener);
-    view.setOnLongClickListener(recyclerView.itemOnLongClickListener);
+    setupItemView(viewHolder.itemView, (EasyRecyclerView) parent);
+    return viewHolder;
+  }
+
+  /**
+   * Wires the item view to the {@code EasyRecyclerView}.
+   */
+  static void setupItemView(View view, EasyRecyclerView recyclerView) {
+    if (!recyclerView.isDelegatedItemClick()) {
+      view.setOnClickListener(recyclerView.itemOnClickListener);
+      view.setOnLongClickListener(recyclerView.itemOnLongClickListener);
+    }
     // Let EasyRecyclerView handle SoundEffects and HapticFeedback
     view.setSoundEffectsEnabled(false);
     view.setHapticFeedbackEnabled(false);
-    return viewHolder;
   }
 
   /**
@@ -23,17 +23,28 @@ package com.hippo.easyrecyclerview;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.GestureDetector;
 import android.view.HapticFeedbackConstants;
+import android.view.MotionEvent;
 import android.view.SoundEffectConstants;
 import android.view.View;
 import android.widget.Checkable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * A {@code EasyRecyclerView} is a {@link RecyclerView}
@@ -50,40 +61,155 @@ import android.widget.Checkable;
  * and {@link #setOnItemLongClickListener(OnItemLongClickListener)}
  * are implemented via {@link View#setOnClickListener(OnClickListener)}
  * and {@link View#setOnLongClickListener(OnLongClickListener)}
- * to child view.
+ * to child view, or via hit testing touch events in the {@code EasyRecyclerView}
+ * after {@link #setDelegatedItemClick(boolean)}.
  * <p>
  * No action mode reaction for choice mode.
  * Single or multiple choices, implements it by your own.
  * <p>
  * Choice mode state is saved. When restores state,
  * {@link ChoiceModeListener#onIntoChoiceMode(EasyRecyclerView)}
- * and {@link ChoiceModeListener#onItemCheckedStateChanged(EasyRecyclerView, int, long, boolean)}
+ * and {@link ChoiceModeListener#onItemsCheckedStateChanged(EasyRecyclerView)}
  * are called, if the view was in choice mode before.
  * <p>
+ * Implements {@link BatchChoiceModeListener} to get one callback for
+ * a range of items in {@link #checkAll()} and {@link #setItemsChecked(int, int, boolean)},
+ * instead of one callback for each item.
+ * <p>
  * You can call {@code Adapter.notifyXXX()} during choice mode.
  * {@link ChoiceModeListener#onItemsCheckedStateChanged(EasyRecyclerView)}
  * is called if any position of checked item is changed.
  * It's better to call {@link #getCheckedItemPositions()} to update the choice state you saved in it.
+ * Dispatch {@code DiffUtil} results with {@link #dispatchUpdates(DiffUtil.DiffResult)}
+ * to keep changed items checked.
+ * <p>
+ * Choice methods must be called on the main thread. Worker threads can change checked state
+ * in bulk with {@link #postCheckedItemBatch(CheckedItemBatch)}.
  */
 public class EasyRecyclerView extends RecyclerView {
 
   private static final String LOG_TAG = EasyRecyclerView.class.getSimpleName();
 
   private static final boolean HAS_ACTIVATED = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+  private static final boolean HAS_CHOREOGRAPHER = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+
+  /**
+   * Keeps checked positions in one of three forms, switching as the selection changes.
+   * It's the default.
+   * <ul>
+   * <li>Sorted positions, for a few scattered checked items</li>
+   * <li>Runs of positions, once there are at least 32 checked items
+   * and runs are at most a quarter of them, or a large range is checked</li>
+   * <li>Bits, once there are at least 256 checked items, too scattered for runs
+   * but dense enough that the bits take less memory</li>
+   * </ul>
+   */
+  public static final int CHOICE_STORAGE_ADAPTIVE = ChoiceState.STORAGE_ADAPTIVE;
+  /**
+   * Keeps checked positions as sorted positions.
+   * Good for a few scattered checked items.
+   */
+  public static final int CHOICE_STORAGE_SPARSE = ChoiceState.STORAGE_SPARSE;
+  /**
+   * Keeps checked positions as runs of positions.
+   * Good for large contiguous selections.
+   */
+  public static final int CHOICE_STORAGE_RUNS = ChoiceState.STORAGE_RUNS;
+  /**
+   * Keeps checked positions as runs of positions in a tree.
+   * {@code Adapter.notifyItemRangeInserted()} and {@code Adapter.notifyItemRangeRemoved()}
+   * cost {@code O(log runs)} instead of {@code O(checked)}.
+   * Good for adapters which insert or remove items frequently.
+   */
+  public static final int CHOICE_STORAGE_TREE = ChoiceState.STORAGE_TREE;
+  /**
+   * Keeps checked positions as bits.
+   * Checking or unchecking an item is {@code O(1)}, {@link #checkAll()} is {@code O(count / 64)}.
+   * Good for dense selections, like checking all then unchecking a few.
+   */
+  public static final int CHOICE_STORAGE_BITSET = ChoiceState.STORAGE_BITSET;
+  /**
+   * Keeps item ids of checked items instead of positions.
+   * The adapter must have stable ids.
+   * Checked items stay checked after {@code Adapter.notifyDataSetChanged()}
+   * and {@code Adapter.notifyItemChanged()}.
+   */
+  public static final int CHOICE_STORAGE_STABLE_IDS = ChoiceState.STORAGE_STABLE_IDS;
 
   private Adapter adapter;
 
+  private int choiceStorage = CHOICE_STORAGE_ADAPTIVE;
   private boolean inChoiceMode;
   private ChoiceState choiceState;
   private ChoiceObserver choiceObserver;
   private ChoiceModeListener choiceModeListener;
+  private ChoiceMetricsSink metricsSink;
+  // Items loaded later are checked too
+  private boolean checkAllIncludingUnloaded;
+
+  private boolean coalesceAdapterUpdates;
+  // Adapter updates not applied to choice state yet
+  private final PositionMapping pendingMapping = new PositionMapping();
+  private boolean pendingViewRefresh;
+  private boolean choiceFlushScheduled;
+  private boolean dispatchingDiff;
+  private final Runnable choiceFlushRunnable = new Runnable() {
+    @Override
+    public void run() {
+      choiceFlushScheduled = false;
+      flushChoiceUpdates();
+    }
+  };
+
+  private final OnScreenViews onScreenViews = new OnScreenViews() {
+    @Override
+    int getViewCount() {
+      return getChildCount();
+    }
+
+    @Override
+    int getViewPosition(int index) {
+      int position = getChildAdapterPosition(getChildAt(index));
+      if (position < 0) {
+        Log.e(LOG_TAG, "Can't get adapter position for a child in updateOnScreenViews()");
+      }
+      return position;
+    }
+
+    @Override
+    void setViewChecked(int index, boolean checked) {
+      EasyRecyclerView.setViewChecked(getChildAt(index), checked);
+    }
+  };
+
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final CheckedItemBatchQueue pendingBatches = new CheckedItemBatchQueue();
+  private final Runnable applyBatchesRunnable = new Runnable() {
+    @Override
+    public void run() {
+      applyCheckedItemBatches();
+    }
+  };
+
+  // Item views might be created by other views
+  private boolean recycledViewPoolShared;
 
   private OnItemClickListener onItemClickListener;
   private OnItemLongClickListener onItemLongClickListener;
+  private OnItemPositionClickListener onItemPositionClickListener;
+  private OnItemPositionLongClickListener onItemPositionLongClickListener;
+
+  private final ClickThrottle clickThrottle = new ClickThrottle();
+  private boolean delegatedItemClick;
+  private ItemClickDispatcher itemClickDispatcher;
 
   View.OnClickListener itemOnClickListener = new View.OnClickListener() {
     @Override
     public void onClick(View v) {
+      // Item views keep listeners after switching to delegated item click
+      if (delegatedItemClick || v.getParent() != EasyRecyclerView.this) {
+        return;
+      }
       RecyclerView.ViewHolder holder = getChildViewHolder(v);
       if (holder != null) {
         performItemClick(holder);
@@ -94,6 +220,9 @@ public class EasyRecyclerView extends RecyclerView {
   View.OnLongClickListener itemOnLongClickListener = new View.OnLongClickListener() {
     @Override
     public boolean onLongClick(View v) {
+      if (delegatedItemClick || v.getParent() != EasyRecyclerView.this) {
+        return false;
+      }
       RecyclerView.ViewHolder holder = getChildViewHolder(v);
       if (holder != null) {
         return performItemLongClick(holder);
@@ -127,10 +256,29 @@ public class EasyRecyclerView extends RecyclerView {
     }
 
     this.adapter = adapter;
+    clickThrottle.reset();
+    if (choiceState instanceof IdChoiceState) {
+      // It maps positions to ids with the old adapter
+      choiceState = null;
+    }
 
     super.setAdapter(adapter);
   }
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * A pool set here might be shared with other {@code EasyRecyclerView}s,
+   * item views are wired to this view each time they are attached.
+   *
+   * @see SharedRecycledViewPool
+   */
+  @Override
+  public void setRecycledViewPool(RecycledViewPool pool) {
+    super.setRecycledViewPool(pool);
+    recycledViewPoolShared = pool != null;
+  }
+
   /**
    * Register a callback to be invoked when an item in this
    * {@code EasyRecyclerView} has been clicked.
@@ -151,6 +299,84 @@ public class EasyRecyclerView extends RecyclerView {
     onItemLongClickListener = listener;
   }
 
+  /**
+   * Drops item clicks too soon after the last dispatched one,
+   * like a double tap on an item which opens a heavy screen.
+   * Clicks by {@link #performItemClick(int)} are dropped too. Long clicks aren't.
+   * <p>
+   * Items are told apart by ids if the adapter has stable ids, by positions otherwise.
+   * The last few clicked items are remembered for {@code itemIntervalMillis}.
+   *
+   * @param intervalMillis the min interval between clicks of any items, {@code 0} for no limit
+   * @param itemIntervalMillis the min interval between clicks of the same item,
+   *          {@code 0} for no limit
+   * @throws IllegalStateException if any interval is negative
+   */
+  public void setItemClickThrottle(long intervalMillis, long itemIntervalMillis) {
+    clickThrottle.setIntervals(intervalMillis, itemIntervalMillis);
+  }
+
+  /**
+   * Sets whether item clicks and long clicks are dispatched by the {@code EasyRecyclerView}
+   * itself. It watches touch events with a {@link GestureDetector} and finds the item view
+   * under a tap or long press, no listener is set to item views.
+   * <p>
+   * It saves setting up listeners for each view holder, and leaves
+   * {@link View#setOnClickListener(OnClickListener)} of item views for other uses.
+   * But item views get no pressed state from it, set them clickable for touch feedback.
+   * Set it before setting an adapter, views created before still have listeners,
+   * which do nothing in this mode.
+   */
+  public void setDelegatedItemClick(boolean delegated) {
+    if (delegatedItemClick == delegated) {
+      return;
+    }
+    delegatedItemClick = delegated;
+    if (delegated) {
+      if (itemClickDispatcher == null) {
+        itemClickDispatcher = new ItemClickDispatcher();
+      }
+      addOnItemTouchListener(itemClickDispatcher);
+    } else {
+      removeOnItemTouchListener(itemClickDispatcher);
+    }
+  }
+
+  /**
+   * Returns {@code true} if item clicks are dispatched by the {@code EasyRecyclerView} itself.
+   */
+  public boolean isDelegatedItemClick() {
+    return delegatedItemClick;
+  }
+
+  /**
+   * Register a callback to be invoked when an item in this
+   * {@code EasyRecyclerView} has been clicked, with the position and the id of the item.
+   * It isn't called for clicks {@code OnItemClickListener} gets.
+   * <p>
+   * {@link #performItemClick(int)} calls it for items not on screen,
+   * without scrolling to them and binding views.
+   *
+   * @param listener The callback that will be invoked.
+   */
+  public void setOnItemPositionClickListener(OnItemPositionClickListener listener) {
+    onItemPositionClickListener = listener;
+  }
+
+  /**
+   * Register a callback to be invoked when an item in this
+   * {@code EasyRecyclerView} has been clicked and held, with the position and the id of the item.
+   * It isn't called for long clicks {@code OnItemLongClickListener} gets.
+   * <p>
+   * {@link #performItemLongClick(int)} calls it for items not on screen,
+   * without scrolling to them and binding views.
+   *
+   * @param listener The callback that will run
+   */
+  public void setOnItemPositionLongClickListener(OnItemPositionLongClickListener listener) {
+    onItemPositionLongClickListener = listener;
+  }
+
   /**
    * Register a callback to be invoked when an choice action happened.
    *
@@ -160,12 +386,147 @@ public class EasyRecyclerView extends RecyclerView {
     choiceModeListener = listener;
   }
 
+  /**
+   * Sets the sink to get counters and timings of choice mode, or {@code null} to stop.
+   * Nothing is measured without a sink.
+   *
+   * @see ChoiceMetrics
+   */
+  public void setChoiceMetricsSink(ChoiceMetricsSink sink) {
+    metricsSink = sink;
+  }
+
+  /**
+   * Sets how checked positions are kept in choice mode.
+   *
+   * @param storage one of {@link #CHOICE_STORAGE_ADAPTIVE}, {@link #CHOICE_STORAGE_SPARSE},
+   *          {@link #CHOICE_STORAGE_RUNS}, {@link #CHOICE_STORAGE_TREE},
+   *          {@link #CHOICE_STORAGE_BITSET} and {@link #CHOICE_STORAGE_STABLE_IDS}
+   * @throws IllegalStateException if the {@code EasyRecyclerView} is in choice mode
+   * @throws IllegalArgumentException if the storage is invalid
+   */
+  public void setChoiceStorage(int storage) {
+    if (inChoiceMode) {
+      throw new IllegalStateException("Can't change choice storage in choice mode");
+    }
+    if (storage != choiceStorage) {
+      // Throws IllegalArgumentException for invalid storage
+      choiceState = storage != CHOICE_STORAGE_STABLE_IDS ? new ChoiceState(storage) : null;
+      choiceStorage = storage;
+    }
+  }
+
+  /**
+   * Returns how checked positions are kept in choice mode.
+   */
+  public int getChoiceStorage() {
+    return choiceStorage;
+  }
+
+  /**
+   * Sets whether adapter updates in choice mode are applied once a frame.
+   * <p>
+   * By default each {@code Adapter.notifyXXX()} changes checked positions right away,
+   * each costs up to {@code O(checked)} and might call
+   * {@link ChoiceModeListener#onItemsCheckedStateChanged(EasyRecyclerView)}.
+   * With it, updates are queued and composed into one position mapping,
+   * which is applied before the next frame, or before any choice method reads or
+   * changes checked state. So a burst of updates shifts sparse checked positions in one pass,
+   * refreshes on-screen views once, and calls the listener at most once a frame.
+   */
+  public void setCoalesceAdapterUpdates(boolean coalesce) {
+    if (coalesceAdapterUpdates && !coalesce) {
+      flushChoiceUpdates();
+    }
+    coalesceAdapterUpdates = coalesce;
+  }
+
+  /**
+   * Returns {@code true} if adapter updates in choice mode are applied once a frame.
+   */
+  public boolean isCoalesceAdapterUpdates() {
+    return coalesceAdapterUpdates;
+  }
+
+  /**
+   * Dispatches the {@code DiffUtil} result to the adapter,
+   * instead of {@code result.dispatchUpdatesTo(adapter)}.
+   * <p>
+   * Items the result reports changed are the same items with new content,
+   * they stay checked. Checked positions are remapped once after all updates,
+   * with at most one {@link ChoiceModeListener#onItemsCheckedStateChanged(EasyRecyclerView)}.
+   *
+   * @throws IllegalStateException if not adapter attached to the {@code EasyRecyclerView}
+   */
+  public void dispatchUpdates(DiffUtil.DiffResult result) {
+    if (adapter == null) {
+      throw new IllegalStateException("Please set adapter first");
+    }
+    dispatchUpdates(result, new AdapterUpdateCallback(adapter));
+  }
+
+  /**
+   * Like {@link #dispatchUpdates(DiffUtil.DiffResult)}, but dispatches to the callback,
+   * which notifies the adapter by its own, with an offset for headers for example.
+   * Checked positions are remapped by notifications the adapter gets.
+   */
+  public void dispatchUpdates(DiffUtil.DiffResult result, ListUpdateCallback callback) {
+    if (!inChoiceMode) {
+      result.dispatchUpdatesTo(callback);
+      return;
+    }
+
+    // ChoiceObserver queues updates of the result
+    flushChoiceUpdates();
+    dispatchingDiff = true;
+    try {
+      result.dispatchUpdatesTo(callback);
+    } finally {
+      dispatchingDiff = false;
+    }
+    flushChoiceUpdates();
+  }
+
+  /**
+   * Makes room in the choice storage for the count of checked items,
+   * before checking many items at once.
+   *
+   * @throws IllegalStateException if the {@code EasyRecyclerView} isn't in choice mode
+   */
+  public void reserveChoiceStorage(int itemCount) {
+    if (!inChoiceMode) {
+      throw new IllegalStateException("Must call intoChoiceMode() first");
+    }
+    flushChoiceUpdates();
+    choiceState.reserve(itemCount);
+  }
+
+  /**
+   * Releases spare capacity of the choice storage.
+   * It also shrinks by itself when it's cleared or mostly unused.
+   */
+  public void trimChoiceStorage() {
+    if (choiceState != null) {
+      choiceState.trimToSize();
+    }
+  }
+
+  /**
+   * Returns bytes taken by the choice storage, for memory accounting.
+   * Returns {@code 0} if it isn't created yet.
+   */
+  public long getChoiceStorageBytes() {
+    return choiceState != null ? choiceState.getMemoryBytes() : 0;
+  }
+
   /**
    * Starts choice mode.
    * <p>
    * Ignores it, if the {@code EasyRecyclerView} is already in choice mode.
    *
-   * @throws IllegalStateException if not adapter attached to the {@code EasyRecyclerView}.
+   * @throws IllegalStateException if not adapter attached to the {@code EasyRecyclerView},
+   *          or choice storage is {@link #CHOICE_STORAGE_STABLE_IDS}
+   *          but the adapter doesn't have stable ids.
    */
   public void intoChoiceMode() {
     if (!inChoiceMode) {
@@ -173,12 +534,19 @@ public class EasyRecyclerView extends RecyclerView {
         throw new IllegalStateException("Please set adapter first");
       }
 
-      inChoiceMode = true;
-
       if (choiceState == null) {
-        choiceState = new ChoiceState();
+        if (choiceStorage == CHOICE_STORAGE_STABLE_IDS) {
+          if (!adapter.hasStableIds()) {
+            throw new IllegalStateException("CHOICE_STORAGE_STABLE_IDS needs stable ids");
+          }
+          choiceState = new IdChoiceState((EasyAdapter<?>) adapter);
+        } else {
+          choiceState = new ChoiceState(choiceStorage);
+        }
       }
 
+      inChoiceMode = true;
+
       if (choiceObserver == null) {
         choiceObserver = new ChoiceObserver();
       }
@@ -198,8 +566,11 @@ public class EasyRecyclerView extends RecyclerView {
   public void outOfChoiceMode() {
     if (inChoiceMode) {
       inChoiceMode = false;
+      checkAllIncludingUnloaded = false;
 
       choiceState.clear();
+      pendingMapping.reset();
+      pendingViewRefresh = false;
 
       adapter.unregisterAdapterDataObserver(choiceObserver);
 
@@ -232,6 +603,7 @@ public class EasyRecyclerView extends RecyclerView {
     if (!inChoiceMode) {
       throw new IllegalStateException("Must call intoChoiceMode() first");
     }
+    flushChoiceUpdates();
     int count = adapter.getItemCount();
     if (position < 0 || position >= count) {
       throw new IllegalStateException("Out of range: position = " + position + ", count = " + count);
@@ -244,12 +616,13 @@ public class EasyRecyclerView extends RecyclerView {
 
     choiceState.setChecked(position, value);
 
-    setViewChecked(position, value);
+    updateOnScreenViews(position, position + 1);
 
     if (choiceModeListener != null) {
       long id = adapter.getItemId(position);
       choiceModeListener.onItemCheckedStateChanged(this, position, id, value);
     }
+    recordCheckedStateChanged(choiceModeListener != null ? 1 : 0);
   }
 
   /**
@@ -261,12 +634,39 @@ public class EasyRecyclerView extends RecyclerView {
    */
   public void toggleItemChecked(int position) {
     if (inChoiceMode) {
+      flushChoiceUpdates();
       setItemChecked(position, !choiceState.isChecked(position));
     } else {
       throw new IllegalStateException("Must call intoChoiceMode() first");
     }
   }
 
+  /**
+   * Sets the checked state of positions in {@code [positionStart, positionStart + itemCount)}.
+   * <p>
+   * It fills the choice state in one pass, much faster than
+   * calling {@link #setItemChecked(int, boolean)} for each position.
+   *
+   * @param positionStart The first item whose checked state is to be set
+   * @param itemCount The count of items
+   * @param value The new checked state for the items
+   * @throws IllegalStateException if the {@code EasyRecyclerView} isn't in choice mode,
+   *          or the range is out of range.
+   */
+  public void setItemsChecked(int positionStart, int itemCount, boolean value) {
+    if (!inChoiceMode) {
+      throw new IllegalStateException("Must call intoChoiceMode() first");
+    }
+    flushChoiceUpdates();
+    int count = adapter.getItemCount();
+    if (positionStart < 0 || itemCount < 0 || positionStart + itemCount > count) {
+      throw new IllegalStateException("Out of range: positionStart = " + positionStart
+          + ", itemCount = " + itemCount + ", count = " + count);
+    }
+
+    setItemsCheckedInternal(positionStart, itemCount, value);
+  }
+
   /**
    * Checks all!
    *
@@ -276,23 +676,132 @@ public class EasyRecyclerView extends RecyclerView {
     if (!inChoiceMode) {
       throw new IllegalStateException("Must call intoChoiceMode() first");
     }
+    flushChoiceUpdates();
+
+    setItemsCheckedInternal(0, adapter.getItemCount(), true);
+  }
 
-    Adapter adapter = this.adapter;
-    for (int i = 0, n = adapter.getItemCount(); i < n; i++) {
-      // Skip checked item
-      if (choiceState.isChecked(i)) {
-        continue;
+  /**
+   * Sets whether all items are checked, including those the adapter hasn't loaded yet,
+   * for paged adapters which report only loaded items in {@code getItemCount()}.
+   * <p>
+   * Setting it checks all loaded items, which is {@code O(1)} for
+   * {@link #CHOICE_STORAGE_ADAPTIVE} and {@link #CHOICE_STORAGE_RUNS}.
+   * From then on, items inserted by {@code Adapter.notifyItemRangeInserted()} are checked,
+   * and items changed by {@code Adapter.notifyItemRangeChanged()} keep checked state.
+   * Items unchecked by the user are the exclusions, see {@link #getUncheckedItemPositions()}.
+   * {@code Adapter.notifyDataSetChanged()} checks all items again.
+   * <p>
+   * Clearing it keeps checked state of loaded items. It's cleared when choice mode ends.
+   * Checked state queries only cover loaded items.
+   *
+   * @throws IllegalStateException if the {@code EasyRecyclerView} isn't in choice mode
+   */
+  public void setCheckAllIncludingUnloaded(boolean value) {
+    if (!inChoiceMode) {
+      throw new IllegalStateException("Must call intoChoiceMode() first");
+    }
+    flushChoiceUpdates();
+    if (checkAllIncludingUnloaded != value) {
+      checkAllIncludingUnloaded = value;
+      if (value) {
+        setItemsCheckedInternal(0, adapter.getItemCount(), true);
       }
+    }
+  }
 
-      choiceState.setChecked(i, true);
+  /**
+   * Returns {@code true} if all items are checked, including those not loaded yet.
+   *
+   * @see #setCheckAllIncludingUnloaded(boolean)
+   */
+  public boolean isCheckAllIncludingUnloaded() {
+    return checkAllIncludingUnloaded;
+  }
 
-      if (choiceModeListener != null) {
-        long id = getAdapter().getItemId(i);
-        choiceModeListener.onItemCheckedStateChanged(this, i, id, true);
+  /**
+   * Returns the positions of loaded items which aren't checked, in ascending order.
+   * With {@link #setCheckAllIncludingUnloaded(boolean)}, they are the exclusions
+   * from all items. It's {@code O(runs + unchecked)}.
+   *
+   * @throws IllegalStateException if the {@code EasyRecyclerView} isn't in choice mode
+   */
+  public int[] getUncheckedItemPositions() {
+    if (!inChoiceMode) {
+      throw new IllegalStateException("Must call intoChoiceMode() first");
+    }
+    flushChoiceUpdates();
+    ChoiceState state = choiceState;
+    int itemCount = adapter.getItemCount();
+    int[] positions = new int[Math.max(itemCount - state.getCheckedItemCount(0, itemCount), 0)];
+    int size = 0;
+    int position = 0;
+    while (position < itemCount) {
+      int start = state.nextCheckedPosition(position);
+      int end = start != -1 ? Math.min(start, itemCount) : itemCount;
+      for (; position < end; position++) {
+        positions[size++] = position;
+      }
+      if (start == -1 || start >= itemCount) {
+        break;
+      }
+      position = state.checkedRunEnd(start);
+    }
+    return positions;
+  }
+
+  /**
+   * Returns the ids of loaded items which aren't checked, in position order.
+   *
+   * @see #getUncheckedItemPositions()
+   * @throws IllegalStateException if the {@code EasyRecyclerView} isn't in choice mode
+   */
+  public long[] getUncheckedItemIds() {
+    int[] positions = getUncheckedItemPositions();
+    long[] ids = new long[positions.length];
+    for (int i = 0; i < positions.length; i++) {
+      ids[i] = adapter.getItemId(positions[i]);
+    }
+    return ids;
+  }
+
+  private void setItemsCheckedInternal(int positionStart, int itemCount, boolean value) {
+    if (choiceModeListener == null || choiceModeListener instanceof BatchChoiceModeListener) {
+      int changed;
+      if (value && positionStart == 0 && itemCount == adapter.getItemCount()) {
+        changed = choiceState.checkAll(itemCount);
+      } else {
+        changed = choiceState.setRangeChecked(positionStart, itemCount, value);
+      }
+      if (changed != 0) {
+        if (choiceModeListener != null) {
+          ((BatchChoiceModeListener) choiceModeListener)
+              .onItemRangeCheckedStateChanged(this, positionStart, itemCount, value);
+        }
+        recordCheckedStateChanged(choiceModeListener != null ? 1 : 0);
+      }
+    } else {
+      // The listener wants to know every changed position
+      Adapter adapter = this.adapter;
+      int callbacks = 0;
+      for (int i = positionStart, n = positionStart + itemCount; i < n; i++) {
+        // Skip unchanged item
+        if (choiceState.isChecked(i) == value) {
+          continue;
+        }
+
+        choiceState.setChecked(i, value);
+
+        long id = adapter.getItemId(i);
+        choiceModeListener.onItemCheckedStateChanged(this, i, id, value);
+        callbacks++;
+      }
+      if (callbacks != 0) {
+        recordCheckedStateChanged(callbacks);
       }
     }
 
-    updateOnScreenViews();
+    updateOnScreenViews(positionStart, positionStart + itemCount);
   }
 
   /**
@@ -306,6 +815,7 @@ public class EasyRecyclerView extends RecyclerView {
     if (!inChoiceMode) {
       throw new IllegalStateException("Must call intoChoiceMode() first");
     }
+    flushChoiceUpdates();
     return choiceState.isChecked(position);
   }
 
@@ -319,6 +829,7 @@ public class EasyRecyclerView extends RecyclerView {
     if (!inChoiceMode) {
       throw new IllegalStateException("Must call intoChoiceMode() first");
     }
+    flushChoiceUpdates();
     return choiceState.getCheckedItemCount();
   }
 
@@ -332,66 +843,258 @@ public class EasyRecyclerView extends RecyclerView {
     if (!inChoiceMode) {
       throw new IllegalStateException("Must call intoChoiceMode() first");
     }
+    flushChoiceUpdates();
     return choiceState.getCheckedItemPositions();
   }
 
-  private void setViewChecked(int position, boolean checked) {
-    ViewHolder holder = findViewHolderForAdapterPosition(position);
-    if (holder != null) {
-      setViewChecked(holder.itemView, checked);
+  /**
+   * Returns an immutable snapshot of checked items in {@code O(1)}.
+   * It can be read from any thread while the view keeps changing,
+   * instead of copying positions with {@link #getCheckedItemPositions()}.
+   *
+   * @throws IllegalStateException if the {@code EasyRecyclerView} isn't in choice mode
+   */
+  public CheckedItemSnapshot getCheckedItemSnapshot() {
+    if (!inChoiceMode) {
+      throw new IllegalStateException("Must call intoChoiceMode() first");
+    }
+    flushChoiceUpdates();
+    if (choiceState instanceof IdChoiceState) {
+      return new CheckedItemSnapshot(((IdChoiceState) choiceState).shareIds());
+    } else {
+      return new CheckedItemSnapshot(choiceState.share());
     }
   }
 
-  private void updateOnScreenViews() {
-    final int count = getChildCount();
-    for (int i = 0; i < count; i++) {
-      final View child = getChildAt(i);
-      final int position = getChildAdapterPosition(child);
-      if (position >= 0) {
-        setViewChecked(child, choiceState.isChecked(position));
-      } else {
-        Log.e(LOG_TAG, "Can't get adapter position for a child in updateOnScreenViews()");
+  /**
+   * Returns the count of checked items in {@code [positionStart, positionStart + itemCount)},
+   * without copying checked positions.
+   *
+   * @throws IllegalStateException if the {@code EasyRecyclerView} isn't in choice mode,
+   *          or the range is negative
+   */
+  public int getCheckedItemCount(int positionStart, int itemCount) {
+    if (!inChoiceMode) {
+      throw new IllegalStateException("Must call intoChoiceMode() first");
+    }
+    flushChoiceUpdates();
+    if (positionStart < 0 || itemCount < 0) {
+      throw new IllegalStateException("Out of range: positionStart = " + positionStart
+          + ", itemCount = " + itemCount);
+    }
+    return choiceState.getCheckedItemCount(positionStart,
+        Math.min(itemCount, Integer.MAX_VALUE - positionStart));
+  }
+
+  /**
+   * Returns the least checked position greater than the position,
+   * or {@link RecyclerView#NO_POSITION} if there is no such position.
+   * Pass {@link RecyclerView#NO_POSITION} to get the first checked position.
+   *
+   * @throws IllegalStateException if the {@code EasyRecyclerView} isn't in choice mode
+   */
+  public int getNextCheckedItemPosition(int position) {
+    if (!inChoiceMode) {
+      throw new IllegalStateException("Must call intoChoiceMode() first");
+    }
+    flushChoiceUpdates();
+    if (position == Integer.MAX_VALUE) {
+      return NO_POSITION;
+    }
+    return choiceState.nextCheckedPosition(position + 1);
+  }
+
+  /**
+   * Calls the callback for each checked position in ascending order,
+   * without copying checked positions.
+   * Don't change checked state in the callback.
+   *
+   * @throws IllegalStateException if the {@code EasyRecyclerView} isn't in choice mode
+   */
+  public void forEachCheckedItem(CheckedItemCallback callback) {
+    if (!inChoiceMode) {
+      throw new IllegalStateException("Must call intoChoiceMode() first");
+    }
+    flushChoiceUpdates();
+    ChoiceState state = choiceState;
+    int start = state.nextCheckedPosition(0);
+    while (start != -1) {
+      int end = state.checkedRunEnd(start);
+      for (int position = start; position < end; position++) {
+        callback.onCheckedItem(position);
       }
+      start = state.nextCheckedPosition(end);
     }
   }
 
-  private void uncheckOnScreenViews() {
-    final int count = getChildCount();
-    for (int i = 0; i < count; i++) {
-      final View child = getChildAt(i);
-      final int position = getChildAdapterPosition(child);
-      if (position >= 0) {
-        setViewChecked(child, false);
-      } else {
-        Log.e(LOG_TAG, "Can't get adapter position for a child in updateOnScreenViews()");
+  /**
+   * Calls the callback for each run of consecutive checked positions in ascending order,
+   * without copying checked positions. It's handy for bulk actions
+   * like deleting checked items, one {@code Adapter.notifyItemRangeRemoved()} for each run.
+   * Don't change checked state in the callback.
+   *
+   * @throws IllegalStateException if the {@code EasyRecyclerView} isn't in choice mode
+   */
+  public void forEachCheckedRange(CheckedRangeCallback callback) {
+    if (!inChoiceMode) {
+      throw new IllegalStateException("Must call intoChoiceMode() first");
+    }
+    flushChoiceUpdates();
+    ChoiceState state = choiceState;
+    int start = state.nextCheckedPosition(0);
+    while (start != -1) {
+      int end = state.checkedRunEnd(start);
+      callback.onCheckedRange(start, end - start);
+      start = state.nextCheckedPosition(end);
+    }
+  }
+
+  /**
+   * Returns the ids of checked items, in no particular order
+   * for {@link #CHOICE_STORAGE_STABLE_IDS}, in position order for others.
+   *
+   * @return the set of checked item ids
+   * @throws IllegalStateException if the {@code EasyRecyclerView} isn't in choice mode
+   */
+  public long[] getCheckedItemIds() {
+    if (!inChoiceMode) {
+      throw new IllegalStateException("Must call intoChoiceMode() first");
+    }
+    flushChoiceUpdates();
+    if (choiceState instanceof IdChoiceState) {
+      return ((IdChoiceState) choiceState).getCheckedItemIds();
+    }
+    int[] positions = choiceState.getCheckedItemPositions();
+    long[] ids = new long[positions.length];
+    for (int i = 0; i < positions.length; i++) {
+      ids[i] = adapter.getItemId(positions[i]);
+    }
+    return ids;
+  }
+
+  /**
+   * Writes checked state in a compact binary format,
+   * to persist the selection to a file for example.
+   * Read it back with {@link #readCheckedState(InputStream)}.
+   *
+   * @throws IllegalStateException if the {@code EasyRecyclerView} isn't in choice mode
+   */
+  public void writeCheckedState(OutputStream out) throws IOException {
+    if (!inChoiceMode) {
+      throw new IllegalStateException("Must call intoChoiceMode() first");
+    }
+    flushChoiceUpdates();
+    ChoiceStateCodec.write(choiceState, out);
+  }
+
+  /**
+   * Reads checked state written by {@link #writeCheckedState(OutputStream)}
+   * and checks those items. Starts choice mode if not in it.
+   * <p>
+   * Positions are restored for all choice storages except {@link #CHOICE_STORAGE_STABLE_IDS},
+   * which restores ids and drops those no longer in the adapter.
+   *
+   * @throws IOException if the stream fails or the data is invalid
+   * @throws IllegalStateException if not adapter attached to the {@code EasyRecyclerView}
+   */
+  public void readCheckedState(InputStream in) throws IOException {
+    ChoiceState restored = ChoiceStateCodec.read(in);
+    intoChoiceMode();
+    restoreCheckedState(restored);
+  }
+
+  /**
+   * Posts a batch of checked state changes from any thread, it's lock-free.
+   * Batches posted before the main thread gets to them are applied together,
+   * with one refresh of on-screen views and one
+   * {@link ChoiceModeListener#onItemsCheckedStateChanged(EasyRecyclerView)}.
+   * Batches are dropped if the {@code EasyRecyclerView} isn't in choice mode then.
+   *
+   * @throws IllegalStateException if the batch has been posted
+   */
+  public void postCheckedItemBatch(CheckedItemBatch batch) {
+    if (pendingBatches.post(batch)) {
+      mainHandler.post(applyBatchesRunnable);
+    }
+  }
+
+  private void applyCheckedItemBatches() {
+    if (!inChoiceMode) {
+      if (pendingBatches.clear()) {
+        Log.w(LOG_TAG, "Drop checked item batch because not in ChoiceMode.");
       }
+      return;
     }
+
+    flushChoiceUpdates();
+    long startTime = startTiming();
+    boolean changed = pendingBatches.applyTo(choiceState, (EasyAdapter<?>) adapter);
+    recordQueueApplied(startTime);
+
+    if (changed) {
+      updateOnScreenViews(pendingBatches.dirtyStart, pendingBatches.dirtyEnd);
+      dispatchItemsCheckedStateChanged();
+    }
+  }
+
+  private void updateOnScreenViews() {
+    updateOnScreenViews(0, Integer.MAX_VALUE);
+  }
+
+  // Refreshes views whose position is in [positionStart, positionEnd)
+  private void updateOnScreenViews(int positionStart, int positionEnd) {
+    if (positionStart >= positionEnd) {
+      return;
+    }
+    long startTime = startTiming();
+    int refreshed = onScreenViews.refresh(choiceState, positionStart, positionEnd);
+    recordViewsRefreshed(refreshed, startTime);
+  }
+
+  private void uncheckOnScreenViews() {
+    long startTime = startTiming();
+    int refreshed = onScreenViews.uncheckAll();
+    recordViewsRefreshed(refreshed, startTime);
   }
 
   @Override
   public void onChildAttachedToWindow(View child) {
     super.onChildAttachedToWindow(child);
 
-    // Apply check state to child view
+    if (recycledViewPoolShared) {
+      // The item view might come from another view
+      EasyAdapter.setupItemView(child, this);
+    }
+
+    // Apply check state to child view. It's in layout, so read queued updates
+    // instead of flushing them, which would call listeners.
     if (choiceState != null) {
       int position = getChildAdapterPosition(child);
       if (position >= 0) {
-        setViewChecked(child, choiceState.isChecked(position));
+        setViewChecked(child,
+            choiceState.isChecked(pendingMapping, position, checkAllIncludingUnloaded));
       }
     }
   }
 
   /**
    * Calls this {@code EasyRecyclerView}'s {@code OnItemClickListener}, if it is defined.
+   * If the item isn't on screen, calls {@code OnItemPositionClickListener} instead,
+   * without binding a view.
    *
    * @return {@code true} if the view is on screen and
    *          {@code OnItemClickListener} consumed the event,
-   *          {@code false} otherwise
+   *          or the position is in the adapter and
+   *          {@code OnItemPositionClickListener} consumed the event,
+   *          {@code false} otherwise, or if the click is dropped by
+   *          {@link #setItemClickThrottle(long, long)}
    */
   public boolean performItemClick(int position) {
     ViewHolder holder = findViewHolderForAdapterPosition(position);
     if (holder != null) {
       return performItemClick(holder);
+    } else if (onItemPositionClickListener != null && isInAdapter(position)) {
+      return performItemClick(position, adapter.getItemId(position));
     } else {
       return false;
     }
@@ -399,30 +1102,64 @@ public class EasyRecyclerView extends RecyclerView {
 
   /**
    * Calls this {@code EasyRecyclerView}'s {@code OnItemLongClickListener}, if it is defined.
+   * If the item isn't on screen, calls {@code OnItemPositionLongClickListener} instead,
+   * without binding a view.
    *
    * @return {@code true} if the view is on screen and
    *          {@code OnItemLongClickListener} consumed the event,
+   *          or the position is in the adapter and
+   *          {@code OnItemPositionLongClickListener} consumed the event,
    *          {@code false} otherwise
    */
   public boolean performItemLongClick(int position) {
     ViewHolder holder = findViewHolderForAdapterPosition(position);
     if (holder != null) {
       return performItemLongClick(holder);
+    } else if (onItemPositionLongClickListener != null && isInAdapter(position)) {
+      return performItemLongClick(position, adapter.getItemId(position));
     } else {
       return false;
     }
   }
 
+  private boolean isInAdapter(int position) {
+    return adapter != null && position >= 0 && position < adapter.getItemCount();
+  }
+
   boolean performItemClick(ViewHolder holder) {
     if (onItemClickListener != null) {
+      if (!acceptClick(holder.getAdapterPosition(), holder.getItemId())) {
+        return false;
+      }
       onItemClickListener.onItemClick(this, holder);
       playSoundEffect(SoundEffectConstants.CLICK);
       return true;
+    } else if (onItemPositionClickListener != null) {
+      int position = holder.getAdapterPosition();
+      return position != NO_POSITION && performItemClick(position, holder.getItemId());
     } else {
       return false;
     }
   }
 
+  private boolean performItemClick(int position, long id) {
+    if (!acceptClick(position, id)) {
+      return false;
+    }
+    onItemPositionClickListener.onItemClick(this, position, id);
+    playSoundEffect(SoundEffectConstants.CLICK);
+    return true;
+  }
+
+  private boolean acceptClick(int position, long id) {
+    if (clickThrottle.isEnabled()) {
+      long key = adapter != null && adapter.hasStableIds() ? id : position;
+      return clickThrottle.tryClick(key, SystemClock.uptimeMillis());
+    } else {
+      return true;
+    }
+  }
+
   boolean performItemLongClick(ViewHolder holder) {
     if (onItemLongClickListener != null) {
       boolean handled = onItemLongClickListener.onItemLongClick(this, holder);
@@ -430,11 +1167,22 @@ public class EasyRecyclerView extends RecyclerView {
         performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
       }
       return handled;
+    } else if (onItemPositionLongClickListener != null) {
+      int position = holder.getAdapterPosition();
+      return position != NO_POSITION && performItemLongClick(position, holder.getItemId());
     } else {
       return false;
     }
   }
 
+  private boolean performItemLongClick(int position, long id) {
+    boolean handled = onItemPositionLongClickListener.onItemLongClick(this, position, id);
+    if (handled) {
+      performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+    }
+    return handled;
+  }
+
   /**
    * This saved state class is a Parcelable and should not extend
    * {@link android.view.View.BaseSavedState} nor {@link android.view.AbsSavedState}
@@ -453,6 +1201,7 @@ public class EasyRecyclerView extends RecyclerView {
     public static final SavedState EMPTY_STATE = new SavedState() {};
 
     boolean inChoiceMode;
+    boolean checkAllIncludingUnloaded;
     ChoiceState choiceState;
 
     // This keeps the parent(RecyclerView)'s state
@@ -478,7 +1227,9 @@ public class EasyRecyclerView extends RecyclerView {
       Parcelable superState = in.readParcelable(RecyclerView.class.getClassLoader());
       mSuperState = superState != null ? superState : EMPTY_STATE;
       inChoiceMode = (in.readInt() != 0);
-      choiceState = ChoiceState.readFromParcel(in);
+      checkAllIncludingUnloaded = (in.readInt() != 0);
+      byte[] bytes = in.createByteArray();
+      choiceState = bytes != null ? ChoiceStateCodec.decode(bytes) : null;
     }
 
     @Override
@@ -490,7 +1241,8 @@ public class EasyRecyclerView extends RecyclerView {
     public void writeToParcel(@NonNull Parcel out, int flags) {
       out.writeParcelable(mSuperState, flags);
       out.writeInt(inChoiceMode ? 1 : 0);
-      ChoiceState.writeToParcel(choiceState, out);
+      out.writeInt(checkAllIncludingUnloaded ? 1 : 0);
+      out.writeByteArray(choiceState != null ? ChoiceStateCodec.encode(choiceState) : null);
     }
 
     public Parcelable getSuperState() {
@@ -513,9 +1265,12 @@ public class EasyRecyclerView extends RecyclerView {
 
   @Override
   public Parcelable onSaveInstanceState() {
+    flushChoiceUpdates();
+
     final SavedState ss = new SavedState(super.onSaveInstanceState());
 
     ss.inChoiceMode = inChoiceMode;
+    ss.checkAllIncludingUnloaded = checkAllIncludingUnloaded;
     ss.choiceState = choiceState;
 
     return ss;
@@ -528,17 +1283,127 @@ public class EasyRecyclerView extends RecyclerView {
 
     if (ss.inChoiceMode) {
       intoChoiceMode();
+      restoreCheckedState(ss.choiceState);
+      checkAllIncludingUnloaded = ss.checkAllIncludingUnloaded;
+    }
+  }
 
-      int[] positions = ss.choiceState.getCheckedItemPositions();
-      for (int position: positions) {
-        choiceState.setChecked(position, true);
-        if (choiceModeListener != null) {
-          long id = adapter.getItemId(position);
-          choiceModeListener.onItemCheckedStateChanged(this, position, id, true);
-        }
-      }
+  // Checks items checked in the restored state.
+  // It's O(n) without per-item callbacks, the listener gets only
+  // one ChoiceModeListener.onItemsCheckedStateChanged().
+  private void restoreCheckedState(ChoiceState restored) {
+    flushChoiceUpdates();
+    if (restored instanceof IdChoiceState) {
+      ((IdChoiceState) restored).setAdapter((EasyAdapter<?>) adapter);
+    }
 
+    boolean changed;
+    if (choiceState.getStorage() == restored.getStorage()
+        && choiceState.getCheckedItemCount() == 0) {
+      // Nothing to merge, adopt it
+      choiceState = restored;
+      changed = restored.getCheckedItemCount() != 0;
+    } else {
+      changed = choiceState.addAll(restored) != 0;
+    }
+
+    if (changed) {
       updateOnScreenViews();
+      dispatchItemsCheckedStateChanged();
+    }
+  }
+
+  private void scheduleChoiceFlush() {
+    if (!choiceFlushScheduled && !dispatchingDiff) {
+      choiceFlushScheduled = true;
+      if (HAS_CHOREOGRAPHER) {
+        postChoiceFlushOnFrame();
+      } else {
+        mainHandler.post(choiceFlushRunnable);
+      }
+    }
+  }
+
+  @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+  private void postChoiceFlushOnFrame() {
+    // Before layout of the frame binds views
+    Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+      @Override
+      public void doFrame(long frameTimeNanos) {
+        choiceFlushRunnable.run();
+      }
+    });
+  }
+
+  // Applies queued adapter updates to choice state
+  private void flushChoiceUpdates() {
+    if (pendingMapping.isIdentity()) {
+      return;
+    }
+
+    boolean refresh = pendingViewRefresh;
+    pendingViewRefresh = false;
+    long startTime = startTiming();
+    boolean changed = choiceState.applyMapping(pendingMapping);
+    if (checkAllIncludingUnloaded
+        && pendingMapping.checkUnmapped(choiceState, adapter.getItemCount())) {
+      // Inserted items are checked
+      changed = true;
+      refresh = true;
+    }
+    recordQueueApplied(startTime);
+    pendingMapping.reset();
+
+    if (changed) {
+      if (refresh) {
+        // Changed items might be unchecked
+        updateOnScreenViews();
+      }
+      dispatchItemsCheckedStateChanged();
+    }
+  }
+
+  private void dispatchItemsCheckedStateChanged() {
+    if (choiceModeListener != null) {
+      choiceModeListener.onItemsCheckedStateChanged(this);
+    }
+    recordCheckedStateChanged(choiceModeListener != null ? 1 : 0);
+  }
+
+  // Metrics, System.nanoTime() is called only with a sink
+
+  private long startTiming() {
+    return metricsSink != null ? System.nanoTime() : 0;
+  }
+
+  private void recordAdapterUpdate(int update, long startTime) {
+    if (metricsSink != null && startTime != 0) {
+      metricsSink.onAdapterUpdate(update, System.nanoTime() - startTime);
+    }
+  }
+
+  private void recordQueuedUpdate(int update) {
+    if (metricsSink != null) {
+      metricsSink.onAdapterUpdate(update, -1);
+    }
+  }
+
+  private void recordQueueApplied(long startTime) {
+    if (metricsSink != null && startTime != 0) {
+      metricsSink.onQueueApplied(System.nanoTime() - startTime);
+    }
+  }
+
+  private void recordViewsRefreshed(int viewCount, long startTime) {
+    if (metricsSink != null && startTime != 0) {
+      metricsSink.onViewsRefreshed(viewCount,
+          System.nanoTime() - startTime);
+    }
+  }
+
+  private void recordCheckedStateChanged(int listenerCallbacks) {
+    if (metricsSink != null) {
+      metricsSink.onCheckedStateChanged(choiceState.getCheckedItemCount(), listenerCallbacks);
     }
   }
 
@@ -551,15 +1416,113 @@ public class EasyRecyclerView extends RecyclerView {
     }
   }
 
+  private static class AdapterUpdateCallback implements ListUpdateCallback {
+
+    private final Adapter adapter;
+
+    AdapterUpdateCallback(Adapter adapter) {
+      this.adapter = adapter;
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+      adapter.notifyItemRangeInserted(position, count);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+      adapter.notifyItemRangeRemoved(position, count);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+      adapter.notifyItemMoved(fromPosition, toPosition);
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+      adapter.notifyItemRangeChanged(position, count, payload);
+    }
+  }
+
+  // Hit tests taps and long presses, instead of listeners on item views
+  private class ItemClickDispatcher extends GestureDetector.SimpleOnGestureListener
+      implements OnItemTouchListener {
+
+    private final GestureDetector detector = new GestureDetector(getContext(), this);
+    // A child takes the gesture
+    private boolean disallowed;
+
+    @Override
+    public boolean onInterceptTouchEvent(RecyclerView rv, MotionEvent e) {
+      if (e.getActionMasked() == MotionEvent.ACTION_DOWN) {
+        disallowed = false;
+      }
+      if (!disallowed) {
+        detector.onTouchEvent(e);
+      }
+      // Only watch, let children and scrolling get events
+      return false;
+    }
+
+    @Override
+    public void onTouchEvent(RecyclerView rv, MotionEvent e) {}
+
+    @Override
+    public void onRequestDisallowInterceptTouchEvent(boolean disallowIntercept) {
+      if (disallowIntercept) {
+        disallowed = true;
+      }
+    }
+
+    @Override
+    public boolean onDown(MotionEvent e) {
+      return true;
+    }
+
+    @Override
+    public boolean onSingleTapUp(MotionEvent e) {
+      ViewHolder holder = findViewHolderUnder(e);
+      return holder != null && performItemClick(holder);
+    }
+
+    @Override
+    public void onLongPress(MotionEvent e) {
+      // The long press is posted, it might come after the child took the gesture
+      if (!disallowed) {
+        ViewHolder holder = findViewHolderUnder(e);
+        if (holder != null) {
+          performItemLongClick(holder);
+        }
+      }
+    }
+
+    private ViewHolder findViewHolderUnder(MotionEvent e) {
+      View child = findChildViewUnder(e.getX(), e.getY());
+      return child != null ? getChildViewHolder(child) : null;
+    }
+  }
+
   private class ChoiceObserver extends RecyclerView.AdapterDataObserver {
 
     @Override
     public void onChanged() {
       if (inChoiceMode) {
-        if (choiceState.onChanged()) {
-          updateOnScreenViews();
-          if (choiceModeListener != null) {
-            choiceModeListener.onItemsCheckedStateChanged(EasyRecyclerView.this);
+        if (coalesceAdapterUpdates || dispatchingDiff) {
+          pendingMapping.onChanged();
+          pendingViewRefresh = true;
+          recordQueuedUpdate(ChoiceMetricsSink.UPDATE_CHANGED);
+          scheduleChoiceFlush();
+        } else {
+          long startTime = startTiming();
+          boolean changed = choiceState.onChanged();
+          if (checkAllIncludingUnloaded) {
+            changed |= choiceState.checkAll(adapter.getItemCount()) != 0;
+          }
+          recordAdapterUpdate(ChoiceMetricsSink.UPDATE_CHANGED, startTime);
+          if (changed) {
+            updateOnScreenViews();
+            dispatchItemsCheckedStateChanged();
           }
         }
       }
@@ -571,11 +1534,22 @@ public class EasyRecyclerView extends RecyclerView {
         return;
       }
 
-      if (inChoiceMode) {
-        if (choiceState.onItemRangeChanged(positionStart, itemCount)) {
-          updateOnScreenViews();
-          if (choiceModeListener != null) {
-            choiceModeListener.onItemsCheckedStateChanged(EasyRecyclerView.this);
+      // Same items with new content keep checked state when dispatching DiffUtil result,
+      // or checking all items including unloaded ones
+      if (inChoiceMode && !dispatchingDiff && !checkAllIncludingUnloaded) {
+        if (coalesceAdapterUpdates) {
+          pendingMapping.onItemRangeChanged(positionStart, itemCount);
+          pendingViewRefresh = true;
+          recordQueuedUpdate(ChoiceMetricsSink.UPDATE_ITEM_RANGE_CHANGED);
+          scheduleChoiceFlush();
+        } else {
+          long startTime = startTiming();
+          boolean changed = choiceState.onItemRangeChanged(positionStart, itemCount);
+          recordAdapterUpdate(ChoiceMetricsSink.UPDATE_ITEM_RANGE_CHANGED, startTime);
+          if (changed) {
+            // Changed items might be unchecked
+            updateOnScreenViews(positionStart, positionStart + itemCount);
+            dispatchItemsCheckedStateChanged();
           }
         }
       }
@@ -588,10 +1562,21 @@ public class EasyRecyclerView extends RecyclerView {
       }
 
       if (inChoiceMode) {
-        if (choiceState.onItemRangeInserted(positionStart, itemCount)) {
-          updateOnScreenViews();
-          if (choiceModeListener != null) {
-            choiceModeListener.onItemsCheckedStateChanged(EasyRecyclerView.this);
+        // Views keep checked state of their items, only new ones might be checked
+        if (coalesceAdapterUpdates || dispatchingDiff) {
+          pendingMapping.onItemRangeInserted(positionStart, itemCount);
+          recordQueuedUpdate(ChoiceMetricsSink.UPDATE_INSERTED);
+          scheduleChoiceFlush();
+        } else {
+          long startTime = startTiming();
+          boolean changed = choiceState.onItemRangeInserted(positionStart, itemCount);
+          boolean inserted = checkAllIncludingUnloaded
+              && choiceState.setRangeChecked(positionStart, itemCount, true) != 0;
+          recordAdapterUpdate(ChoiceMetricsSink.UPDATE_INSERTED, startTime);
+          // RecyclerView hasn't seen the insert yet, children still have old positions.
+          // Inserted items get checked state when their views are attached.
+          if (changed || inserted) {
+            dispatchItemsCheckedStateChanged();
           }
         }
       }
@@ -604,10 +1589,17 @@ public class EasyRecyclerView extends RecyclerView {
       }
 
       if (inChoiceMode) {
-        if (choiceState.onItemRangeRemoved(positionStart, itemCount)) {
-          updateOnScreenViews();
-          if (choiceModeListener != null) {
-            choiceModeListener.onItemsCheckedStateChanged(EasyRecyclerView.this);
+        // Views keep checked state of their items, no need to refresh them
+        if (coalesceAdapterUpdates || dispatchingDiff) {
+          pendingMapping.onItemRangeRemoved(positionStart, itemCount);
+          recordQueuedUpdate(ChoiceMetricsSink.UPDATE_REMOVED);
+          scheduleChoiceFlush();
+        } else {
+          long startTime = startTiming();
+          boolean changed = choiceState.onItemRangeRemoved(positionStart, itemCount);
+          recordAdapterUpdate(ChoiceMetricsSink.UPDATE_REMOVED, startTime);
+          if (changed) {
+            dispatchItemsCheckedStateChanged();
           }
         }
       }
@@ -618,15 +1610,18 @@ public class EasyRecyclerView extends RecyclerView {
       if (itemCount < 1 || fromPosition == toPosition) {
         return;
       }
-      if (itemCount != 1) {
-        throw new IllegalArgumentException("Moving more than 1 item is not supported yet");
-      }
-
       if (inChoiceMode) {
-        if (choiceState.onItemRangeMoved(fromPosition, toPosition)) {
-          updateOnScreenViews();
-          if (choiceModeListener != null) {
-            choiceModeListener.onItemsCheckedStateChanged(EasyRecyclerView.this);
+        // Views keep checked state of their items, no need to refresh them
+        if (coalesceAdapterUpdates || dispatchingDiff) {
+          pendingMapping.onItemRangeMoved(fromPosition, toPosition, itemCount);
+          recordQueuedUpdate(ChoiceMetricsSink.UPDATE_MOVED);
+          scheduleChoiceFlush();
+        } else {
+          long startTime = startTiming();
+          boolean changed = choiceState.onItemRangeMoved(fromPosition, toPosition, itemCount);
+          recordAdapterUpdate(ChoiceMetricsSink.UPDATE_MOVED, startTime);
+          if (changed) {
+            dispatchItemsCheckedStateChanged();
           }
         }
       }
@@ -665,6 +1660,40 @@ s   */
     boolean onItemLongClick(EasyRecyclerView parent, RecyclerView.ViewHolder holder);
   }
 
+  /**
+   * Interface definition for a callback to be invoked when an item in the
+   * {@code EasyRecyclerView} has been clicked, which might be not on screen.
+   */
+  public interface OnItemPositionClickListener {
+
+    /**
+     * Callback method to be invoked when an item in this
+     * {@code EasyRecyclerView} has been clicked.
+     *
+     * @param parent the EasyRecyclerView where the click happened
+     * @param position the adapter position of the item
+     * @param id the id of the item
+     */
+    void onItemClick(EasyRecyclerView parent, int position, long id);
+  }
+
+  /**
+   * Interface definition for a callback to be invoked when an item in the
+   * {@code EasyRecyclerView} has been clicked and held, which might be not on screen.
+   */
+  public interface OnItemPositionLongClickListener {
+
+    /**
+     * Callback method to be invoked when an item in this
+     * {@code EasyRecyclerView} has been clicked and held.
+     *
+     * @param parent the EasyRecyclerView where the click happened
+     * @param position the adapter position of the item
+     * @param id the id of the item
+     */
+    boolean onItemLongClick(EasyRecyclerView parent, int position, long id);
+  }
+
   /**
    * Interface definition for a callback to be invoked when an choice action happened.
    */
@@ -697,11 +1726,114 @@ s   */
     /**
      * Callback method to be invoked when multiple item checked state changes.
      * <p>
-     * It always caused by {@code Adapter.notifyXXX()}.
+     * It always caused by {@code Adapter.notifyXXX()}, state restoring
+     * or {@link #postCheckedItemBatch(CheckedItemBatch)}.
      * But {@code Adapter.notifyXXX()} may not cause it.
      *
      * @param view the {@code EasyRecyclerView}
      */
     void onItemsCheckedStateChanged(EasyRecyclerView view);
   }
+
+  /**
+   * Receives counters and timings of choice mode, on the main thread.
+   * Calls must be cheap, they are on the layout path.
+   *
+   * @see #setChoiceMetricsSink(ChoiceMetricsSink)
+   * @see ChoiceMetrics
+   */
+  public interface ChoiceMetricsSink {
+
+    int UPDATE_CHANGED = 0;
+    int UPDATE_ITEM_RANGE_CHANGED = 1;
+    int UPDATE_INSERTED = 2;
+    int UPDATE_REMOVED = 3;
+    int UPDATE_MOVED = 4;
+    int UPDATE_TYPE_COUNT = 5;
+
+    /**
+     * Called for an adapter update in choice mode.
+     *
+     * @param update one of {@code UPDATE_XXX}
+     * @param transformNanos the time taken to transform checked state,
+     *          or {@code -1} if the update is queued, see
+     *          {@link #setCoalesceAdapterUpdates(boolean)}
+     */
+    void onAdapterUpdate(int update, long transformNanos);
+
+    /**
+     * Called when queued adapter updates or posted batches are applied to checked state.
+     *
+     * @param transformNanos the time taken to apply them
+     */
+    void onQueueApplied(long transformNanos);
+
+    /**
+     * Called when checked state of on-screen views is refreshed.
+     *
+     * @param viewCount the count of refreshed views
+     * @param nanos the time taken to refresh them
+     */
+    void onViewsRefreshed(int viewCount, long nanos);
+
+    /**
+     * Called when checked state changes.
+     *
+     * @param checkedItemCount the count of checked items now
+     * @param listenerCallbacks how many times {@link ChoiceModeListener} is called for it
+     */
+    void onCheckedStateChanged(int checkedItemCount, int listenerCallbacks);
+  }
+
+  /**
+   * Callback for {@link #forEachCheckedItem(CheckedItemCallback)}.
+   */
+  public interface CheckedItemCallback {
+
+    /**
+     * Called for a checked position.
+     *
+     * @param position the position of the checked item
+     */
+    void onCheckedItem(int position);
+  }
+
+  /**
+   * Callback for {@link #forEachCheckedRange(CheckedRangeCallback)}.
+   */
+  public interface CheckedRangeCallback {
+
+    /**
+     * Called for a run of consecutive checked positions.
+     *
+     * @param positionStart the position of the first checked item in the run
+     * @param itemCount the count of checked items in the run
+     */
+    void onCheckedRange(int positionStart, int itemCount);
+  }
+
+  /**
+   * A {@link ChoiceModeListener} which gets one callback for a range of items.
+   * <p>
+   * {@link #onItemRangeCheckedStateChanged(EasyRecyclerView, int, int, boolean)} is called
+   * instead of {@link #onItemCheckedStateChanged(EasyRecyclerView, int, long, boolean)}
+   * for {@link #checkAll()} and {@link #setItemsChecked(int, int, boolean)}.
+   * {@link #setItemChecked(int, boolean)} still calls
+   * {@link #onItemCheckedStateChanged(EasyRecyclerView, int, long, boolean)}.
+   */
+  public interface BatchChoiceModeListener extends ChoiceModeListener {
+
+    /**
+     * Callback method to be invoked when checked state of a range of items changes.
+     * All items in the range are in the checked state now,
+     * and at least one of them was not.
+     *
+     * @param view the {@code EasyRecyclerView}
+     * @param positionStart the position of the first item
+     * @param itemCount the count of items
+     * @param checked the checked state of the items
+     */
+    void onItemRangeCheckedStateChanged(EasyRecyclerView view, int positionStart, int itemCount,
+        boolean checked);
+  }
 }
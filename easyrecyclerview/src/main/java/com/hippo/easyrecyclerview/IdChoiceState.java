@@ -0,0 +1,283 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import java.util.Arrays;
+
+/**
+ * A {@link ChoiceState} keeps ids of checked items instead of positions.
+ * The adapter must have stable ids.
+ * <p>
+ * Checked items stay checked whatever {@code Adapter.notifyXXX()} is called,
+ * even {@code Adapter.notifyDataSetChanged()}.
+ * Ids of items no longer in the adapter are dropped lazily,
+ * the next time the count or positions of checked items are queried.
+ */
+class IdChoiceState extends ChoiceState {
+
+  private ItemIds adapter;
+  private LongHashSet ids = new LongHashSet();
+  /** The ids are shared with a snapshot, copy them before writing **/
+  private boolean sharedIds;
+  /** Some checked items might be removed **/
+  private boolean needsPrune;
+
+  public IdChoiceState(ItemIds adapter) {
+    super(STORAGE_STABLE_IDS, null);
+    this.adapter = adapter;
+  }
+
+  /**
+   * Attaches the adapter to map positions to ids.
+   */
+  void setAdapter(ItemIds adapter) {
+    if (this.adapter != adapter) {
+      this.adapter = adapter;
+      needsPrune = true;
+    }
+  }
+
+  // Drops ids which are not in the adapter
+  private void prune() {
+    if (!needsPrune) {
+      return;
+    }
+    needsPrune = false;
+
+    if (ids.size() == 0) {
+      return;
+    }
+    LongHashSet newIds = new LongHashSet(ids.size());
+    for (int i = 0, n = adapter.getItemCount(); i < n; i++) {
+      long id = adapter.getItemId(i);
+      if (ids.contains(id)) {
+        newIds.add(id);
+      }
+    }
+    ids = newIds;
+    sharedIds = false;
+  }
+
+  /**
+   * Returns the checked ids and stops writing to them, in {@code O(1)}
+   * after dropping ids no longer in the adapter.
+   * The next write copies them first. So they never change and can be read from any thread.
+   */
+  LongHashSet shareIds() {
+    prune();
+    sharedIds = true;
+    return ids;
+  }
+
+  // Returns the ids to write to, copies them if they are shared
+  private LongHashSet writableIds() {
+    if (sharedIds) {
+      ids = ids.copy();
+      sharedIds = false;
+    }
+    return ids;
+  }
+
+  /**
+   * Set checked state for special item id.
+   */
+  public boolean setCheckedById(long id, boolean checked) {
+    return checked ? writableIds().add(id) : writableIds().remove(id);
+  }
+
+  /**
+   * Returns ids of all checked items.
+   */
+  public long[] getCheckedItemIds() {
+    prune();
+    return ids.toArray();
+  }
+
+  @Override
+  public boolean isChecked(int position) {
+    return isInAdapter(position) && ids.contains(adapter.getItemId(position));
+  }
+
+  @Override
+  public void setChecked(int position, boolean checked) {
+    if (isInAdapter(position)) {
+      setCheckedById(adapter.getItemId(position), checked);
+    }
+  }
+
+  // Positions out of the adapter have no id
+  private boolean isInAdapter(int position) {
+    return position >= 0 && position < adapter.getItemCount();
+  }
+
+  @Override
+  public int setRangeChecked(int positionStart, int itemCount, boolean checked) {
+    int changed = 0;
+    for (int i = Math.max(positionStart, 0), n = clampEnd(positionStart, itemCount); i < n; i++) {
+      if (setCheckedById(adapter.getItemId(i), checked)) {
+        changed++;
+      }
+    }
+    return changed;
+  }
+
+  @Override
+  public int checkAll(int itemCount) {
+    return setRangeChecked(0, itemCount, true);
+  }
+
+  @Override
+  public int addAll(ChoiceState other) {
+    if (other instanceof IdChoiceState) {
+      int changed = 0;
+      for (long id : ((IdChoiceState) other).getCheckedItemIds()) {
+        if (setCheckedById(id, true)) {
+          changed++;
+        }
+      }
+      return changed;
+    } else {
+      return super.addAll(other);
+    }
+  }
+
+  @Override
+  public void reserve(int count) {
+    writableIds().reserve(count);
+  }
+
+  @Override
+  public void trimToSize() {
+    prune();
+    writableIds().trimToSize();
+  }
+
+  @Override
+  public long getMemoryBytes() {
+    return ids.memoryBytes();
+  }
+
+  @Override
+  public void clear() {
+    if (sharedIds) {
+      ids = new LongHashSet();
+      sharedIds = false;
+    } else {
+      ids.clear();
+    }
+    needsPrune = false;
+  }
+
+  @Override
+  public int getCheckedItemCount() {
+    prune();
+    return ids.size();
+  }
+
+  @Override
+  public int getCheckedItemCount(int positionStart, int itemCount) {
+    int count = 0;
+    for (int i = Math.max(positionStart, 0), n = clampEnd(positionStart, itemCount); i < n; i++) {
+      if (isChecked(i)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  // Positions out of the adapter have no id
+  private int clampEnd(int positionStart, int itemCount) {
+    return (int) Math.min((long) positionStart + itemCount, adapter.getItemCount());
+  }
+
+  @Override
+  public int nextCheckedPosition(int position) {
+    for (int i = Math.max(position, 0), n = adapter.getItemCount(); i < n; i++) {
+      if (isChecked(i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int checkedRunEnd(int position) {
+    int end = position + 1;
+    for (int n = adapter.getItemCount(); end < n && isChecked(end); end++) {}
+    return end;
+  }
+
+  @Override
+  public int[] getCheckedItemPositions() {
+    prune();
+    int[] positions = new int[ids.size()];
+    int count = 0;
+    for (int i = 0, n = adapter.getItemCount(); i < n; i++) {
+      if (ids.contains(adapter.getItemId(i))) {
+        if (count == positions.length) {
+          // Ids are not unique
+          positions = Arrays.copyOf(positions, ContainerHelpers.growSize(count));
+        }
+        positions[count++] = i;
+      }
+    }
+    return count == positions.length ? positions : Arrays.copyOf(positions, count);
+  }
+
+  @Override
+  public boolean onChanged() {
+    needsPrune = true;
+    return ids.size() != 0;
+  }
+
+  @Override
+  public boolean onItemRangeChanged(int positionStart, int itemCount) {
+    // Same ids, same checked state
+    return false;
+  }
+
+  @Override
+  public boolean onItemRangeInserted(int positionStart, int itemCount) {
+    return ids.size() != 0;
+  }
+
+  @Override
+  public boolean onItemRangeRemoved(int positionStart, int itemCount) {
+    needsPrune = true;
+    return ids.size() != 0;
+  }
+
+  @Override
+  public boolean applyMapping(PositionMapping mapping) {
+    // Changed items keep their ids
+    if (mapping.hasRemoved()) {
+      needsPrune = true;
+    }
+    return mapping.isStructural() && ids.size() != 0;
+  }
+
+  @Override
+  public boolean isChecked(PositionMapping mapping, int position, boolean checkUnmapped) {
+    // Ids follow their items
+    return isChecked(position) || (checkUnmapped && mapping.getOldPosition(position) < 0);
+  }
+
+  @Override
+  public boolean onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+    return ids.size() != 0;
+  }
+}
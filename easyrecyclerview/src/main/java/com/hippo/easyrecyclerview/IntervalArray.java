@@ -0,0 +1,330 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import java.util.Arrays;
+
+/**
+ * A {@link PositionSet} keeps runs of consecutive positions as {@code (start, length)} pairs.
+ * Runs are in ascending order, never empty, never overlap and never touch each other.
+ * <p>
+ * It costs {@code O(runs)} memory, so a contiguous selection is cheap whatever its size.
+ */
+class IntervalArray extends PositionSet {
+
+  int[] starts;
+  int[] lengths;
+  int runCount;
+  /** The count of positions **/
+  int size;
+  /** The index of the last lookup, searches start from it **/
+  private int finger;
+
+  public IntervalArray() {
+    this(4);
+  }
+
+  public IntervalArray(int initialCapacity) {
+    initialCapacity = ContainerHelpers.idealIntArraySize(initialCapacity);
+    starts = new int[initialCapacity];
+    lengths = new int[initialCapacity];
+    runCount = 0;
+    size = 0;
+  }
+
+  /**
+   * Collects the runs of a {@code OrderedIntArray}.
+   */
+  public IntervalArray(OrderedIntArray array) {
+    this(array.runCount);
+    int[] a = array.array;
+    int n = -1;
+    for (int i = 0, size = array.size; i < size; i++) {
+      int position = a[i];
+      if (n >= 0 && starts[n] + lengths[n] == position) {
+        lengths[n]++;
+      } else {
+        n++;
+        starts[n] = position;
+        lengths[n] = 1;
+      }
+    }
+    runCount = n + 1;
+    size = array.size;
+  }
+
+  @Override
+  public IntervalArray copy() {
+    IntervalArray copy = new IntervalArray(0);
+    int capacity = ContainerHelpers.idealIntArraySize(runCount);
+    copy.starts = Arrays.copyOf(starts, capacity);
+    copy.lengths = Arrays.copyOf(lengths, capacity);
+    copy.runCount = runCount;
+    copy.size = size;
+    return copy;
+  }
+
+  // Returns the index of the last run which starts before or at the position, or -1
+  private int floorRun(int position) {
+    int index = ContainerHelpers.upperBound(starts, runCount, position, finger);
+    finger = index;
+    return index - 1;
+  }
+
+  private int endOf(int index) {
+    return starts[index] + lengths[index];
+  }
+
+  // Replaces runs in [index, index + oldCount) with newCount uninitialized runs
+  private void replaceRuns(int index, int oldCount, int newCount) {
+    int tail = runCount - (index + oldCount);
+    int newRunCount = runCount - oldCount + newCount;
+    if (newRunCount > starts.length) {
+      int capacity = ContainerHelpers.idealIntArraySize(ContainerHelpers.growSize(newRunCount));
+      int[] newStarts = new int[capacity];
+      int[] newLengths = new int[capacity];
+      System.arraycopy(starts, 0, newStarts, 0, index);
+      System.arraycopy(lengths, 0, newLengths, 0, index);
+      System.arraycopy(starts, index + oldCount, newStarts, index + newCount, tail);
+      System.arraycopy(lengths, index + oldCount, newLengths, index + newCount, tail);
+      starts = newStarts;
+      lengths = newLengths;
+    } else if (oldCount != newCount) {
+      System.arraycopy(starts, index + oldCount, starts, index + newCount, tail);
+      System.arraycopy(lengths, index + oldCount, lengths, index + newCount, tail);
+    }
+    runCount = newRunCount;
+  }
+
+  // Splits the run containing the position, so that a run starts at the position
+  private void splitAt(int position) {
+    int index = floorRun(position);
+    if (index >= 0 && starts[index] < position && position < endOf(index)) {
+      int end = endOf(index);
+      replaceRuns(index + 1, 0, 1);
+      lengths[index] = position - starts[index];
+      starts[index + 1] = position;
+      lengths[index + 1] = end - position;
+    }
+  }
+
+  // Merges the run with the next run if they touch
+  private void mergeWithNext(int index) {
+    if (index >= 0 && index + 1 < runCount && endOf(index) == starts[index + 1]) {
+      lengths[index] += lengths[index + 1];
+      replaceRuns(index + 1, 1, 0);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(int position) {
+    int index = floorRun(position);
+    return index >= 0 && position < endOf(index);
+  }
+
+  @Override
+  public boolean add(int position) {
+    int index = floorRun(position);
+    if (index >= 0 && position < endOf(index)) {
+      return false;
+    }
+
+    boolean linkLeft = index >= 0 && endOf(index) == position;
+    boolean linkRight = index + 1 < runCount && starts[index + 1] == position + 1;
+    if (linkLeft && linkRight) {
+      lengths[index] += 1 + lengths[index + 1];
+      replaceRuns(index + 1, 1, 0);
+    } else if (linkLeft) {
+      lengths[index]++;
+    } else if (linkRight) {
+      starts[index + 1]--;
+      lengths[index + 1]++;
+    } else {
+      replaceRuns(index + 1, 0, 1);
+      starts[index + 1] = position;
+      lengths[index + 1] = 1;
+    }
+    size++;
+    return true;
+  }
+
+  @Override
+  public boolean remove(int position) {
+    int index = floorRun(position);
+    if (index < 0 || position >= endOf(index)) {
+      return false;
+    }
+
+    int start = starts[index];
+    int end = endOf(index);
+    if (end - start == 1) {
+      replaceRuns(index, 1, 0);
+    } else if (position == start) {
+      starts[index]++;
+      lengths[index]--;
+    } else if (position == end - 1) {
+      lengths[index]--;
+    } else {
+      replaceRuns(index + 1, 0, 1);
+      lengths[index] = position - start;
+      starts[index + 1] = position + 1;
+      lengths[index + 1] = end - position - 1;
+    }
+    size--;
+    return true;
+  }
+
+  @Override
+  public int addRange(int start, int end) {
+    if (start >= end) {
+      return 0;
+    }
+
+    int oldSize = size;
+    removeRange(start, end);
+    int index = floorRun(start) + 1;
+    replaceRuns(index, 0, 1);
+    starts[index] = start;
+    lengths[index] = end - start;
+    size += end - start;
+    mergeWithNext(index);
+    mergeWithNext(index - 1);
+    return size - oldSize;
+  }
+
+  @Override
+  public void clear() {
+    runCount = 0;
+    size = 0;
+    if (ContainerHelpers.shouldShrink(0, starts.length)) {
+      resize(ContainerHelpers.idealIntArraySize(ContainerHelpers.shrinkSize(0)));
+    }
+  }
+
+  private void resize(int capacity) {
+    starts = Arrays.copyOf(starts, capacity);
+    lengths = Arrays.copyOf(lengths, capacity);
+  }
+
+  @Override
+  public boolean removeRange(int start, int end) {
+    if (start >= end) {
+      return false;
+    }
+
+    int first = floorRun(start);
+    if (first < 0 || endOf(first) <= start) {
+      first++;
+    }
+    int last = floorRun(end - 1);
+    if (first > last) {
+      return false;
+    }
+
+    int firstStart = starts[first];
+    int lastEnd = endOf(last);
+    for (int i = first; i <= last; i++) {
+      size -= Math.min(endOf(i), end) - Math.max(starts[i], start);
+    }
+
+    boolean keepLeft = firstStart < start;
+    boolean keepRight = lastEnd > end;
+    int index = first;
+    replaceRuns(first, last - first + 1, (keepLeft ? 1 : 0) + (keepRight ? 1 : 0));
+    if (keepLeft) {
+      starts[index] = firstStart;
+      lengths[index] = start - firstStart;
+      index++;
+    }
+    if (keepRight) {
+      starts[index] = end;
+      lengths[index] = lastEnd - end;
+    }
+    return true;
+  }
+
+  @Override
+  public boolean shift(int start, int end, int diff) {
+    if (start >= end) {
+      return false;
+    }
+
+    splitAt(start);
+    splitAt(end);
+
+    int first = floorRun(start);
+    if (first < 0 || endOf(first) <= start) {
+      first++;
+    }
+    int last = floorRun(end - 1);
+    if (first > last) {
+      // No run in the range, so nothing was split either
+      return false;
+    }
+
+    for (int i = first; i <= last; i++) {
+      starts[i] += diff;
+    }
+    mergeWithNext(last);
+    mergeWithNext(first - 1);
+    return true;
+  }
+
+  @Override
+  public int runEnd(int position) {
+    return endOf(floorRun(position));
+  }
+
+  @Override
+  public int ceiling(int position) {
+    int index = floorRun(position);
+    if (index >= 0 && position < endOf(index)) {
+      return position;
+    }
+    index++;
+    return index < runCount ? starts[index] : -1;
+  }
+
+  @Override
+  public void trimToSize() {
+    if (starts.length != runCount) {
+      resize(runCount);
+    }
+  }
+
+  @Override
+  public long memoryBytes() {
+    return 8L * starts.length;
+  }
+
+  @Override
+  public int[] toArray() {
+    int[] result = new int[size];
+    int index = 0;
+    for (int i = 0; i < runCount; i++) {
+      for (int position = starts[i], end = endOf(i); position < end; position++) {
+        result[index++] = position;
+      }
+    }
+    return result;
+  }
+}
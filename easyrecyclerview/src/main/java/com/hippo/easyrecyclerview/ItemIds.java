@@ -0,0 +1,30 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+/**
+ * Item count and item ids, what choice state needs from the adapter.
+ * {@link EasyAdapter} implements it, tests fake it without Android.
+ */
+interface ItemIds {
+
+  int getItemCount();
+
+  long getItemId(int position);
+
+  boolean hasStableIds();
+}
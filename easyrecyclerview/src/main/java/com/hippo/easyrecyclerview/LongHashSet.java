@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import java.util.Arrays;
+
+/**
+ * A set of longs, open addressing with linear probing, no boxing.
+ * <p>
+ * {@code 0} marks empty slots, the key {@code 0} itself is kept in {@link #hasZero}.
+ */
+class LongHashSet {
+
+  private static final float LOAD_FACTOR = 0.5f;
+
+  private long[] table;
+  private int mask;
+  /** The count of keys in table, not including zero **/
+  private int count;
+  private boolean hasZero;
+
+  public LongHashSet() {
+    this(8);
+  }
+
+  public LongHashSet(int expectedSize) {
+    int capacity = capacityFor(expectedSize);
+    table = new long[capacity];
+    mask = capacity - 1;
+  }
+
+  private static int capacityFor(int expectedSize) {
+    int capacity = 8;
+    while (capacity * LOAD_FACTOR < expectedSize) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  /**
+   * Returns a copy of the set. Writes to one of them don't affect the other.
+   */
+  public LongHashSet copy() {
+    LongHashSet copy = new LongHashSet(0);
+    copy.table = table.clone();
+    copy.mask = mask;
+    copy.count = count;
+    copy.hasZero = hasZero;
+    return copy;
+  }
+
+  // Murmur3 finalizer
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+  // Returns the slot of the key, or the empty slot where it should be
+  private int slot(long key) {
+    int i = hash(key) & mask;
+    while (true) {
+      long k = table[i];
+      if (k == 0 || k == key) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+  }
+
+  public int size() {
+    return count + (hasZero ? 1 : 0);
+  }
+
+  public boolean contains(long key) {
+    if (key == 0) {
+      return hasZero;
+    }
+    return table[slot(key)] == key;
+  }
+
+  public boolean add(long key) {
+    if (key == 0) {
+      boolean result = !hasZero;
+      hasZero = true;
+      return result;
+    }
+    int i = slot(key);
+    if (table[i] == key) {
+      return false;
+    }
+    table[i] = key;
+    if (++count > table.length * LOAD_FACTOR) {
+      rehash(table.length << 1);
+    }
+    return true;
+  }
+
+  public boolean remove(long key) {
+    if (key == 0) {
+      boolean result = hasZero;
+      hasZero = false;
+      return result;
+    }
+    int i = slot(key);
+    if (table[i] != key) {
+      return false;
+    }
+
+    // Shift back following keys of the cluster, no tombstones
+    int hole = i;
+    int j = (i + 1) & mask;
+    while (table[j] != 0) {
+      int home = hash(table[j]) & mask;
+      // Move it if its home isn't in (hole, j]
+      if (((j - home) & mask) >= ((j - hole) & mask)) {
+        table[hole] = table[j];
+        hole = j;
+      }
+      j = (j + 1) & mask;
+    }
+    table[hole] = 0;
+    count--;
+    return true;
+  }
+
+  public void clear() {
+    if (ContainerHelpers.shouldShrink(0, table.length)) {
+      table = new long[capacityFor(0)];
+      mask = table.length - 1;
+    } else {
+      Arrays.fill(table, 0);
+    }
+    count = 0;
+    hasZero = false;
+  }
+
+  /**
+   * Makes room for the count of keys.
+   */
+  public void reserve(int expectedSize) {
+    int capacity = capacityFor(expectedSize);
+    if (capacity > table.length) {
+      rehash(capacity);
+    }
+  }
+
+  /**
+   * Releases spare capacity.
+   */
+  public void trimToSize() {
+    int capacity = capacityFor(count);
+    if (capacity != table.length) {
+      rehash(capacity);
+    }
+  }
+
+  /**
+   * Returns bytes taken by the table.
+   */
+  public long memoryBytes() {
+    return 8L * table.length;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldTable = table;
+    table = new long[capacity];
+    mask = capacity - 1;
+    for (long key : oldTable) {
+      if (key != 0) {
+        table[slot(key)] = key;
+      }
+    }
+  }
+
+  /**
+   * Returns all keys in no particular order.
+   */
+  public long[] toArray() {
+    long[] result = new long[size()];
+    int index = 0;
+    if (hasZero) {
+      result[index++] = 0;
+    }
+    for (long key : table) {
+      if (key != 0) {
+        result[index++] = key;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,509 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+/**
+ * A {@link PositionSet} keeps runs of consecutive positions in a treap.
+ * Each node carries a lazy offset for its subtree, so shifting all positions
+ * in a range is a split, a tag and a join, {@code O(log runs)} expected.
+ * <p>
+ * Nodes live in parallel int arrays, node {@code 0} is the null node.
+ */
+class OffsetTree extends PositionSet {
+
+  private int[] left;
+  private int[] right;
+  private int[] priority;
+  private int[] start;
+  private int[] length;
+  /** Pending offset for children **/
+  private int[] lazy;
+  /** Total length of the subtree **/
+  private int[] sum;
+  /** Node count of the subtree **/
+  private int[] count;
+
+  private int root;
+  /** The next never used node **/
+  private int nextNode;
+  /** Released nodes, chained by {@link #left} **/
+  private int freeNode;
+
+  private int seed = 0x2545F491;
+
+  // Results of split()
+  private int splitLeft;
+  private int splitRight;
+  // Result of popMin()
+  private int popped;
+
+  public OffsetTree() {
+    this(8);
+  }
+
+  public OffsetTree(int initialCapacity) {
+    allocate(ContainerHelpers.idealIntArraySize(initialCapacity + 1));
+    root = 0;
+    nextNode = 1;
+    freeNode = 0;
+  }
+
+  // Drops all nodes
+  private void allocate(int capacity) {
+    left = new int[capacity];
+    right = new int[capacity];
+    priority = new int[capacity];
+    start = new int[capacity];
+    length = new int[capacity];
+    lazy = new int[capacity];
+    sum = new int[capacity];
+    count = new int[capacity];
+  }
+
+  @Override
+  public OffsetTree copy() {
+    // Free nodes are copied too, they are chained in left
+    OffsetTree copy = new OffsetTree(0);
+    copy.left = left.clone();
+    copy.right = right.clone();
+    copy.priority = priority.clone();
+    copy.start = start.clone();
+    copy.length = length.clone();
+    copy.lazy = lazy.clone();
+    copy.sum = sum.clone();
+    copy.count = count.clone();
+    copy.root = root;
+    copy.nextNode = nextNode;
+    copy.freeNode = freeNode;
+    copy.seed = seed;
+    return copy;
+  }
+
+  private int nextPriority() {
+    // xorshift32
+    int x = seed;
+    x ^= x << 13;
+    x ^= x >>> 17;
+    x ^= x << 5;
+    seed = x;
+    return x;
+  }
+
+  private int newNode(int position, int len) {
+    int node;
+    if (freeNode != 0) {
+      node = freeNode;
+      freeNode = left[node];
+    } else {
+      if (nextNode == left.length) {
+        grow();
+      }
+      node = nextNode++;
+    }
+    left[node] = 0;
+    right[node] = 0;
+    priority[node] = nextPriority();
+    start[node] = position;
+    length[node] = len;
+    lazy[node] = 0;
+    sum[node] = len;
+    count[node] = 1;
+    return node;
+  }
+
+  private void grow() {
+    int capacity = ContainerHelpers.idealIntArraySize(ContainerHelpers.growSize(left.length));
+    left = copyOf(left, capacity);
+    right = copyOf(right, capacity);
+    priority = copyOf(priority, capacity);
+    start = copyOf(start, capacity);
+    length = copyOf(length, capacity);
+    lazy = copyOf(lazy, capacity);
+    sum = copyOf(sum, capacity);
+    count = copyOf(count, capacity);
+  }
+
+  private int[] copyOf(int[] array, int capacity) {
+    int[] newArray = new int[capacity];
+    System.arraycopy(array, 0, newArray, 0, nextNode);
+    return newArray;
+  }
+
+  private void releaseTree(int node) {
+    if (node != 0) {
+      releaseTree(left[node]);
+      releaseTree(right[node]);
+      left[node] = freeNode;
+      freeNode = node;
+    }
+  }
+
+  private void push(int node) {
+    int diff = lazy[node];
+    if (diff != 0) {
+      int l = left[node];
+      int r = right[node];
+      if (l != 0) {
+        start[l] += diff;
+        lazy[l] += diff;
+      }
+      if (r != 0) {
+        start[r] += diff;
+        lazy[r] += diff;
+      }
+      lazy[node] = 0;
+    }
+  }
+
+  private void update(int node) {
+    int l = left[node];
+    int r = right[node];
+    sum[node] = sum[l] + sum[r] + length[node];
+    count[node] = count[l] + count[r] + 1;
+  }
+
+  // All positions in a are less than all positions in b
+  private int merge(int a, int b) {
+    if (a == 0) {
+      return b;
+    }
+    if (b == 0) {
+      return a;
+    }
+    if (priority[a] > priority[b]) {
+      push(a);
+      right[a] = merge(right[a], b);
+      update(a);
+      return a;
+    } else {
+      push(b);
+      left[b] = merge(a, left[b]);
+      update(b);
+      return b;
+    }
+  }
+
+  // Splits to positions less than the key and the others,
+  // cuts the run across the key. Results are in splitLeft and splitRight.
+  private void split(int node, int key) {
+    if (node == 0) {
+      splitLeft = 0;
+      splitRight = 0;
+      return;
+    }
+
+    push(node);
+    if (start[node] >= key) {
+      split(left[node], key);
+      left[node] = splitRight;
+      update(node);
+      splitRight = node;
+    } else {
+      int end = start[node] + length[node];
+      if (end > key) {
+        // All runs in right subtree start after the end
+        int cut = newNode(key, end - key);
+        length[node] = key - start[node];
+        splitRight = merge(cut, right[node]);
+        right[node] = 0;
+        update(node);
+        splitLeft = node;
+      } else {
+        split(right[node], key);
+        right[node] = splitLeft;
+        update(node);
+        splitLeft = node;
+      }
+    }
+  }
+
+  // Removes the first run, stores it in popped
+  private int popMin(int node) {
+    push(node);
+    if (left[node] == 0) {
+      popped = node;
+      return right[node];
+    }
+    left[node] = popMin(left[node]);
+    update(node);
+    return node;
+  }
+
+  private void growMax(int node, int diff) {
+    push(node);
+    if (right[node] != 0) {
+      growMax(right[node], diff);
+    } else {
+      length[node] += diff;
+    }
+    update(node);
+  }
+
+  private int maxEnd(int node) {
+    int offset = 0;
+    while (right[node] != 0) {
+      offset += lazy[node];
+      node = right[node];
+    }
+    return offset + start[node] + length[node];
+  }
+
+  private int minStart(int node) {
+    int offset = 0;
+    while (left[node] != 0) {
+      offset += lazy[node];
+      node = left[node];
+    }
+    return offset + start[node];
+  }
+
+  // Merges and coalesces touching runs on the seam
+  private int join(int a, int b) {
+    if (a == 0) {
+      return b;
+    }
+    if (b == 0) {
+      return a;
+    }
+    if (maxEnd(a) == minStart(b)) {
+      b = popMin(b);
+      int node = popped;
+      growMax(a, length[node]);
+      left[node] = freeNode;
+      freeNode = node;
+    }
+    return merge(a, b);
+  }
+
+  // Returns the real end of the last run starting before or at the position, or -1.
+  // It writes nothing, so concurrent reads of a set no longer written are safe.
+  private int floorRunEnd(int position) {
+    int node = root;
+    int offset = 0;
+    int end = -1;
+    while (node != 0) {
+      int realStart = offset + start[node];
+      offset += lazy[node];
+      if (realStart <= position) {
+        end = realStart + length[node];
+        node = right[node];
+      } else {
+        node = left[node];
+      }
+    }
+    return end;
+  }
+
+  @Override
+  public int size() {
+    return sum[root];
+  }
+
+  /**
+   * Returns the count of runs.
+   */
+  public int runCount() {
+    return count[root];
+  }
+
+  @Override
+  public boolean contains(int position) {
+    // floorRunEnd() is -1 if no run starts before or at the position
+    return position >= 0 && position < floorRunEnd(position);
+  }
+
+  @Override
+  public boolean add(int position) {
+    if (contains(position)) {
+      return false;
+    }
+    split(root, position);
+    int l = splitLeft;
+    int r = splitRight;
+    root = join(join(l, newNode(position, 1)), r);
+    return true;
+  }
+
+  @Override
+  public boolean remove(int position) {
+    if (!contains(position)) {
+      return false;
+    }
+    removeRange(position, position + 1);
+    return true;
+  }
+
+  @Override
+  public int addRange(int start, int end) {
+    if (start >= end) {
+      return 0;
+    }
+    split(root, start);
+    int l = splitLeft;
+    split(splitRight, end);
+    int m = splitLeft;
+    int r = splitRight;
+    int added = (end - start) - sum[m];
+    releaseTree(m);
+    root = join(join(l, newNode(start, end - start)), r);
+    return added;
+  }
+
+  @Override
+  public void clear() {
+    root = 0;
+    nextNode = 1;
+    freeNode = 0;
+    if (ContainerHelpers.shouldShrink(1, left.length)) {
+      allocate(ContainerHelpers.idealIntArraySize(ContainerHelpers.shrinkSize(1)));
+    }
+  }
+
+  @Override
+  public boolean removeRange(int start, int end) {
+    if (start >= end) {
+      return false;
+    }
+    split(root, start);
+    int l = splitLeft;
+    split(splitRight, end);
+    int m = splitLeft;
+    int r = splitRight;
+    releaseTree(m);
+    root = join(l, r);
+    return m != 0;
+  }
+
+  @Override
+  public boolean shift(int start, int end, int diff) {
+    if (start >= end) {
+      return false;
+    }
+    split(root, start);
+    int l = splitLeft;
+    split(splitRight, end);
+    int m = splitLeft;
+    int r = splitRight;
+    if (m != 0) {
+      this.start[m] += diff;
+      lazy[m] += diff;
+    }
+    root = join(join(l, m), r);
+    return m != 0;
+  }
+
+  @Override
+  public boolean move(int from, int to, int count) {
+    if (count <= 0 || from == to) {
+      return false;
+    }
+
+    // Cut into four pieces, tag two of them, join them in new order
+    int lo;
+    int mid;
+    int hi;
+    if (from < to) {
+      lo = from;
+      mid = from + count;
+      hi = to + count;
+    } else {
+      lo = to;
+      mid = from;
+      hi = from + count;
+    }
+    split(root, lo);
+    int l = splitLeft;
+    split(splitRight, mid);
+    int a = splitLeft;
+    split(splitRight, hi);
+    int b = splitLeft;
+    int r = splitRight;
+    if (a == 0 && b == 0) {
+      root = join(l, r);
+      return false;
+    }
+
+    int diffA = hi - mid;
+    int diffB = lo - mid;
+    if (a != 0) {
+      start[a] += diffA;
+      lazy[a] += diffA;
+    }
+    if (b != 0) {
+      start[b] += diffB;
+      lazy[b] += diffB;
+    }
+    root = join(join(join(l, b), a), r);
+    return true;
+  }
+
+  @Override
+  public int runEnd(int position) {
+    // Runs never touch each other
+    return floorRunEnd(position);
+  }
+
+  @Override
+  public int ceiling(int position) {
+    position = Math.max(position, 0);
+    if (position < floorRunEnd(position)) {
+      return position;
+    }
+
+    // The least start greater than the position
+    int node = root;
+    int offset = 0;
+    int result = -1;
+    while (node != 0) {
+      int realStart = offset + start[node];
+      offset += lazy[node];
+      if (realStart > position) {
+        result = realStart;
+        node = left[node];
+      } else {
+        node = right[node];
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long memoryBytes() {
+    // Eight int arrays
+    return 32L * left.length;
+  }
+
+  @Override
+  public int[] toArray() {
+    int[] result = new int[size()];
+    fill(root, 0, result, 0);
+    return result;
+  }
+
+  private int fill(int node, int offset, int[] array, int index) {
+    if (node == 0) {
+      return index;
+    }
+    int childOffset = offset + lazy[node];
+    index = fill(left[node], childOffset, array, index);
+    for (int position = offset + start[node], end = position + length[node];
+        position < end; position++) {
+      array[index++] = position;
+    }
+    return fill(right[node], childOffset, array, index);
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+/**
+ * On-screen item views showing checked state, refreshed only for positions a change affects.
+ * {@link EasyRecyclerView} implements it over its children, tests fake it without Android.
+ */
+abstract class OnScreenViews {
+
+  private int refreshCount;
+
+  /**
+   * Returns the count of on-screen views.
+   */
+  abstract int getViewCount();
+
+  /**
+   * Returns the adapter position of the view at {@code index},
+   * or a negative value if it's unknown.
+   */
+  abstract int getViewPosition(int index);
+
+  abstract void setViewChecked(int index, boolean checked);
+
+  /**
+   * Refreshes views whose position is in {@code [positionStart, positionEnd)}.
+   * Returns the count of refreshed views.
+   */
+  int refresh(ChoiceState state, int positionStart, int positionEnd) {
+    int refreshed = 0;
+    for (int i = 0, n = getViewCount(); i < n; i++) {
+      int position = getViewPosition(i);
+      if (position >= 0 && position >= positionStart && position < positionEnd) {
+        setViewChecked(i, state.isChecked(position));
+        refreshed++;
+      }
+    }
+    refreshCount += refreshed;
+    return refreshed;
+  }
+
+  /**
+   * Unchecks all views with a known position.
+   * Returns the count of refreshed views.
+   */
+  int uncheckAll() {
+    int refreshed = 0;
+    for (int i = 0, n = getViewCount(); i < n; i++) {
+      if (getViewPosition(i) >= 0) {
+        setViewChecked(i, false);
+        refreshed++;
+      }
+    }
+    refreshCount += refreshed;
+    return refreshed;
+  }
+
+  /**
+   * Returns how many times checked state of views has been refreshed,
+   * not including binding new views.
+   */
+  int getRefreshCount() {
+    return refreshCount;
+  }
+}
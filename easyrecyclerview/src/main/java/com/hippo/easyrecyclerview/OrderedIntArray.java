@@ -0,0 +1,456 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+/*
+ * Created by Hippo on 1/28/2017.
+ */
+
+import java.util.Arrays;
+
+/**
+ * A {@link PositionSet} keeps one int for one position, in ascending order.
+ */
+class OrderedIntArray extends PositionSet {
+
+  int[] array;
+  int size;
+  /** The count of runs of consecutive positions **/
+  int runCount;
+  /** The index of the last lookup, searches start from it **/
+  private int finger;
+
+  public OrderedIntArray() {
+    this(10);
+  }
+
+  public OrderedIntArray(int initialCapacity) {
+    initialCapacity = ContainerHelpers.idealIntArraySize(initialCapacity);
+    array = new int[initialCapacity];
+    size = 0;
+    runCount = 0;
+  }
+
+  /**
+   * Expands the runs of a {@code IntervalArray}.
+   */
+  public OrderedIntArray(IntervalArray intervals) {
+    this(intervals.size);
+    int[] a = array;
+    int index = 0;
+    for (int i = 0, n = intervals.runCount; i < n; i++) {
+      int start = intervals.starts[i];
+      int end = start + intervals.lengths[i];
+      for (int position = start; position < end; position++) {
+        a[index++] = position;
+      }
+    }
+    size = index;
+    runCount = intervals.runCount;
+  }
+
+  @Override
+  public OrderedIntArray copy() {
+    OrderedIntArray copy = new OrderedIntArray(0);
+    copy.array = Arrays.copyOf(array, ContainerHelpers.idealIntArraySize(size));
+    copy.size = size;
+    copy.runCount = runCount;
+    return copy;
+  }
+
+  /**
+   * Call it after filling {@link #array} and {@link #size} directly.
+   */
+  void countRuns() {
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (isRunStart(i)) {
+        count++;
+      }
+    }
+    runCount = count;
+  }
+
+  // Returns true if array[index] is the first position of a run
+  private boolean isRunStart(int index) {
+    return index == 0 || array[index] != array[index - 1] + 1;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(int position) {
+    int index = lowerBound(position);
+    return index < size && array[index] == position;
+  }
+
+  @Override
+  public boolean add(int position) {
+    int index = lowerBound(position);
+    if (index == size || array[index] != position) {
+      boolean linkLeft = index > 0 && array[index - 1] == position - 1;
+      boolean linkRight = index < size && array[index] == position + 1;
+      array = ContainerHelpers.insert(array, size, index, position);
+      size++;
+      runCount += 1 - (linkLeft ? 1 : 0) - (linkRight ? 1 : 0);
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  @Override
+  public boolean remove(int position) {
+    int index = lowerBound(position);
+    if (index < size && array[index] == position) {
+      removeAt(index);
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  public void removeAt(int index) {
+    int position = array[index];
+    boolean linkLeft = index > 0 && array[index - 1] == position - 1;
+    boolean linkRight = index + 1 < size && array[index + 1] == position + 1;
+    runCount -= 1 - (linkLeft ? 1 : 0) - (linkRight ? 1 : 0);
+    System.arraycopy(array, index + 1, array, index, size - (index + 1));
+    size--;
+    shrinkIfSparse();
+  }
+
+  // Shrinks the array if most of it isn't in use
+  private void shrinkIfSparse() {
+    if (ContainerHelpers.shouldShrink(size, array.length)) {
+      int capacity = ContainerHelpers.idealIntArraySize(ContainerHelpers.shrinkSize(size));
+      array = Arrays.copyOf(array, capacity);
+    }
+  }
+
+  @Override
+  public int addRange(int start, int end) {
+    if (start >= end) {
+      return 0;
+    }
+
+    int lo = lowerBound(start);
+    int hi = lowerBound(end);
+    int count = end - start;
+    int added = count - (hi - lo);
+    if (added == 0) {
+      return 0;
+    }
+
+    int oldStarts = countRunStarts(lo, hi + 1);
+    int newSize = size + added;
+    if (newSize <= array.length) {
+      System.arraycopy(array, hi, array, lo + count, size - hi);
+    } else {
+      // Only one allocation, copy only elements in use
+      int capacity = Math.max(newSize, ContainerHelpers.growSize(size));
+      int[] newArray = new int[ContainerHelpers.idealIntArraySize(capacity)];
+      System.arraycopy(array, 0, newArray, 0, lo);
+      System.arraycopy(array, hi, newArray, lo + count, size - hi);
+      array = newArray;
+    }
+    for (int i = 0; i < count; i++) {
+      array[lo + i] = start + i;
+    }
+    size = newSize;
+    runCount += countRunStarts(lo, lo + count + 1) - oldStarts;
+    return added;
+  }
+
+  @Override
+  public void clear() {
+    size = 0;
+    runCount = 0;
+    shrinkIfSparse();
+  }
+
+  @Override
+  public boolean removeRange(int start, int end) {
+    int lo = lowerBound(start);
+    int hi = lowerBound(end);
+    if (lo >= hi) {
+      return false;
+    }
+
+    // Runs starting in the range disappear, the run after it may join the one before it
+    int runs = runCount;
+    for (int i = lo; i < hi; i++) {
+      if (isRunStart(i)) {
+        runs--;
+      }
+    }
+    if (hi < size) {
+      if (isRunStart(hi)) {
+        runs--;
+      }
+      if (lo == 0 || array[hi] != array[lo - 1] + 1) {
+        runs++;
+      }
+    }
+    runCount = runs;
+
+    System.arraycopy(array, hi, array, lo, size - hi);
+    size -= hi - lo;
+    shrinkIfSparse();
+    return true;
+  }
+
+  @Override
+  public boolean shift(int start, int end, int diff) {
+    int lo = lowerBound(start);
+    int hi = lowerBound(end);
+    if (lo >= hi) {
+      return false;
+    }
+
+    int links = countBoundaryLinks(lo, hi);
+    for (int i = lo; i < hi; i++) {
+      array[i] += diff;
+    }
+    runCount += links - countBoundaryLinks(lo, hi);
+    return true;
+  }
+
+  // Counts the links between the index range and its neighbours
+  private int countBoundaryLinks(int lo, int hi) {
+    int links = 0;
+    if (lo > 0 && array[lo] == array[lo - 1] + 1) {
+      links++;
+    }
+    if (hi < size && array[hi] == array[hi - 1] + 1) {
+      links++;
+    }
+    return links;
+  }
+
+  @Override
+  public boolean move(int from, int to, int count) {
+    if (count <= 0 || from == to) {
+      return false;
+    }
+
+    // Swap two adjacent blocks [lo, mid) and [mid, hi) in place
+    int lo;
+    int mid;
+    int hi;
+    int diffLeft;
+    int diffRight;
+    if (from < to) {
+      lo = lowerBound(from);
+      mid = lowerBound(from + count);
+      hi = lowerBound(to + count);
+      // Moved block goes right, middle goes left
+      diffLeft = to - from;
+      diffRight = -count;
+    } else {
+      lo = lowerBound(to);
+      mid = lowerBound(from);
+      hi = lowerBound(from + count);
+      // Middle goes right, moved block goes left
+      diffLeft = count;
+      diffRight = to - from;
+    }
+    if (lo == hi) {
+      return false;
+    }
+
+    int oldStarts = countRunStarts(lo, hi + 1);
+    for (int i = lo; i < mid; i++) {
+      array[i] += diffLeft;
+    }
+    for (int i = mid; i < hi; i++) {
+      array[i] += diffRight;
+    }
+    reverse(lo, mid);
+    reverse(mid, hi);
+    reverse(lo, hi);
+    runCount += countRunStarts(lo, hi + 1) - oldStarts;
+    return true;
+  }
+
+  private void reverse(int from, int to) {
+    for (int i = from, j = to - 1; i < j; i++, j--) {
+      int temp = array[i];
+      array[i] = array[j];
+      array[j] = temp;
+    }
+  }
+
+  private int countRunStarts(int from, int to) {
+    int count = 0;
+    for (int i = from, n = Math.min(to, size); i < n; i++) {
+      if (isRunStart(i)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public int runEnd(int position) {
+    int end = position + 1;
+    for (int i = lowerBound(position) + 1; i < size && array[i] == end; i++) {
+      end++;
+    }
+    return end;
+  }
+
+  @Override
+  public int countRange(int start, int end) {
+    if (start >= end) {
+      return 0;
+    }
+    int lo = lowerBound(start);
+    return lowerBound(end) - lo;
+  }
+
+  @Override
+  public int ceiling(int position) {
+    int index = lowerBound(position);
+    return index < size ? array[index] : -1;
+  }
+
+  /**
+   * Maps positions by the mapping in place, in one pass.
+   * Positions of a segment are a block of the array, they are shifted together,
+   * and runs change only on the bounds of blocks.
+   * Returns {@code true} if any position is moved or dropped.
+   */
+  boolean map(PositionMapping mapping) {
+    int[] a = array;
+    int read = 0;
+    int write = 0;
+    int runs = runCount;
+    // The original a[read - 1], elements before read might be written
+    int previous = 0;
+    boolean changed = false;
+    boolean sorted = true;
+    for (int s = 0, n = mapping.segmentCount(); s < n && read < size; s++) {
+      int oldStart = mapping.segmentOldStart(s);
+      long oldEnd = (long) oldStart + mapping.segmentLength(s);
+      int lo = lowerBoundFrom(a, size, oldStart, read);
+      int hi = oldEnd > Integer.MAX_VALUE ? size : lowerBoundFrom(a, size, (int) oldEnd, lo);
+      if (lo != read) {
+        changed = true;
+        runs -= countDroppedRunStarts(read, lo, previous);
+        previous = a[lo - 1];
+      }
+      if (lo < hi) {
+        int diff = mapping.segmentNewStart(s) - oldStart;
+        if (diff != 0) {
+          changed = true;
+        }
+        int first = a[lo] + diff;
+        if (write > 0 && a[write - 1] >= first) {
+          // Moved
+          sorted = false;
+        }
+        // The first one of the block might start a run or not now
+        if (lo == 0 || a[lo] != previous + 1) {
+          runs--;
+        }
+        if (write == 0 || a[write - 1] + 1 != first) {
+          runs++;
+        }
+        previous = a[hi - 1];
+
+        int offset = write - lo;
+        for (int i = lo; i < hi; i++) {
+          a[i + offset] = a[i] + diff;
+        }
+        write += hi - lo;
+      }
+      read = hi;
+    }
+    if (read != size) {
+      // The tail is dropped
+      changed = true;
+      runs -= countDroppedRunStarts(read, size, previous);
+    }
+
+    size = write;
+    if (sorted) {
+      runCount = runs;
+    } else {
+      Arrays.sort(a, 0, size);
+      countRuns();
+    }
+    shrinkIfSparse();
+    return changed;
+  }
+
+  // Counts run starts in [from, to), previous is the original array[from - 1]
+  private int countDroppedRunStarts(int from, int to, int previous) {
+    int count = 0;
+    for (int i = from; i < to; i++) {
+      if (i == 0 || array[i] != previous + 1) {
+        count++;
+      }
+      previous = array[i];
+    }
+    return count;
+  }
+
+  // Like lowerBound(), but never looks before the index,
+  // elements before it are written by map()
+  private static int lowerBoundFrom(int[] a, int size, int value, int from) {
+    if (from >= size || a[from] >= value) {
+      return from;
+    }
+    // Gallops forward only
+    return ContainerHelpers.lowerBound(a, size, value, from);
+  }
+
+  // Returns the index of the first position greater than or equal to the value
+  private int lowerBound(int value) {
+    int index = ContainerHelpers.lowerBound(array, size, value, finger);
+    finger = index;
+    return index;
+  }
+
+  @Override
+  public void reserve(int count) {
+    if (array.length < count) {
+      array = Arrays.copyOf(array, ContainerHelpers.idealIntArraySize(count));
+    }
+  }
+
+  @Override
+  public void trimToSize() {
+    if (array.length != size) {
+      array = Arrays.copyOf(array, size);
+    }
+  }
+
+  @Override
+  public long memoryBytes() {
+    return 4L * array.length;
+  }
+
+  @Override
+  public int[] toArray() {
+    return Arrays.copyOfRange(array, 0, size);
+  }
+}
@@ -0,0 +1,487 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import java.util.Arrays;
+
+/**
+ * A {@link PositionSet} keeps one bit for one position, packed in longs.
+ * {@link #contains(int)}, {@link #add(int)} and {@link #remove(int)} are {@code O(1)}.
+ * <p>
+ * In inverted mode, all positions in {@code [0, limit)} are in the set
+ * except those whose bit is set. It's how {@link #setAll(int)} works,
+ * then unchecking a few positions only needs words up to the last one.
+ */
+class PositionBitSet extends PositionSet {
+
+  private static final int ADDRESS_BITS_PER_WORD = 6;
+  private static final int BITS_PER_WORD = 1 << ADDRESS_BITS_PER_WORD;
+
+  private long[] words;
+  /** Words after it are all zero **/
+  private int wordsInUse;
+  /** The count of positions **/
+  private int size;
+  /** Bits are positions out of the set in [0, limit) **/
+  private boolean inverted;
+  private int limit;
+
+  public PositionBitSet() {
+    this(BITS_PER_WORD);
+  }
+
+  public PositionBitSet(int initialBits) {
+    words = new long[Math.max(1, wordIndex(initialBits - 1) + 1)];
+  }
+
+  @Override
+  public PositionBitSet copy() {
+    PositionBitSet copy = new PositionBitSet(0);
+    copy.words = Arrays.copyOf(words, Math.max(1, wordsInUse));
+    copy.wordsInUse = wordsInUse;
+    copy.size = size;
+    copy.inverted = inverted;
+    copy.limit = limit;
+    return copy;
+  }
+
+  private static int wordIndex(int bitIndex) {
+    return bitIndex >> ADDRESS_BITS_PER_WORD;
+  }
+
+  /**
+   * Returns {@code true} if it's in inverted mode.
+   */
+  boolean isInverted() {
+    return inverted;
+  }
+
+  /**
+   * Makes the set contain exactly {@code [0, count)}.
+   */
+  public void setAll(int count) {
+    clear();
+    if (count > 0) {
+      inverted = true;
+      limit = count;
+      size = count;
+    }
+  }
+
+  /**
+   * Returns the least bound that all positions in the set are less than.
+   */
+  int span() {
+    return inverted ? limit : wordsInUse << ADDRESS_BITS_PER_WORD;
+  }
+
+  // Bit operations
+
+  private void ensureWords(int wordsRequired) {
+    if (words.length < wordsRequired) {
+      int capacity = Math.max(2 * words.length, wordsRequired);
+      words = Arrays.copyOf(words, capacity);
+    }
+  }
+
+  private void recalculateWordsInUse() {
+    int i;
+    for (i = wordsInUse - 1; i >= 0; i--) {
+      if (words[i] != 0) {
+        break;
+      }
+    }
+    wordsInUse = i + 1;
+  }
+
+  private long wordAt(int index) {
+    return index < wordsInUse ? words[index] : 0;
+  }
+
+  // Reads 64 bits starting at the bit, negative bits are zero
+  private long readBits(int bitIndex) {
+    if (bitIndex < 0) {
+      return bitIndex <= -BITS_PER_WORD ? 0 : wordAt(0) << -bitIndex;
+    }
+    int index = wordIndex(bitIndex);
+    int offset = bitIndex & (BITS_PER_WORD - 1);
+    long low = wordAt(index) >>> offset;
+    return offset == 0 ? low : low | (wordAt(index + 1) << (BITS_PER_WORD - offset));
+  }
+
+  private boolean getBit(int bitIndex) {
+    int index = wordIndex(bitIndex);
+    return index < wordsInUse && (words[index] & (1L << bitIndex)) != 0;
+  }
+
+  private void setBit(int bitIndex) {
+    int index = wordIndex(bitIndex);
+    ensureWords(index + 1);
+    words[index] |= 1L << bitIndex;
+    wordsInUse = Math.max(wordsInUse, index + 1);
+  }
+
+  private void clearBit(int bitIndex) {
+    int index = wordIndex(bitIndex);
+    if (index < wordsInUse) {
+      words[index] &= ~(1L << bitIndex);
+      recalculateWordsInUse();
+    }
+  }
+
+  private void setBits(int fromIndex, int toIndex) {
+    if (fromIndex >= toIndex) {
+      return;
+    }
+    int startWord = wordIndex(fromIndex);
+    int endWord = wordIndex(toIndex - 1);
+    ensureWords(endWord + 1);
+    long firstMask = -1L << fromIndex;
+    long lastMask = -1L >>> -toIndex;
+    if (startWord == endWord) {
+      words[startWord] |= firstMask & lastMask;
+    } else {
+      words[startWord] |= firstMask;
+      for (int i = startWord + 1; i < endWord; i++) {
+        words[i] = -1L;
+      }
+      words[endWord] |= lastMask;
+    }
+    wordsInUse = Math.max(wordsInUse, endWord + 1);
+  }
+
+  private void clearBits(int fromIndex, int toIndex) {
+    toIndex = Math.min(toIndex, wordsInUse << ADDRESS_BITS_PER_WORD);
+    if (fromIndex >= toIndex) {
+      return;
+    }
+    int startWord = wordIndex(fromIndex);
+    int endWord = wordIndex(toIndex - 1);
+    long firstMask = -1L << fromIndex;
+    long lastMask = -1L >>> -toIndex;
+    if (startWord == endWord) {
+      words[startWord] &= ~(firstMask & lastMask);
+    } else {
+      words[startWord] &= ~firstMask;
+      for (int i = startWord + 1; i < endWord; i++) {
+        words[i] = 0;
+      }
+      words[endWord] &= ~lastMask;
+    }
+    recalculateWordsInUse();
+  }
+
+  private int countBits(int fromIndex, int toIndex) {
+    toIndex = Math.min(toIndex, wordsInUse << ADDRESS_BITS_PER_WORD);
+    if (fromIndex >= toIndex) {
+      return 0;
+    }
+    int startWord = wordIndex(fromIndex);
+    int endWord = wordIndex(toIndex - 1);
+    long firstMask = -1L << fromIndex;
+    long lastMask = -1L >>> -toIndex;
+    if (startWord == endWord) {
+      return Long.bitCount(words[startWord] & firstMask & lastMask);
+    }
+    int count = Long.bitCount(words[startWord] & firstMask);
+    for (int i = startWord + 1; i < endWord; i++) {
+      count += Long.bitCount(words[i]);
+    }
+    return count + Long.bitCount(words[endWord] & lastMask);
+  }
+
+  private int nextSetBit(int fromIndex) {
+    int index = wordIndex(fromIndex);
+    if (index >= wordsInUse) {
+      return -1;
+    }
+    long word = words[index] & (-1L << fromIndex);
+    while (true) {
+      if (word != 0) {
+        return (index << ADDRESS_BITS_PER_WORD) + Long.numberOfTrailingZeros(word);
+      }
+      if (++index == wordsInUse) {
+        return -1;
+      }
+      word = words[index];
+    }
+  }
+
+  private int nextClearBit(int fromIndex) {
+    int index = wordIndex(fromIndex);
+    if (index >= wordsInUse) {
+      return fromIndex;
+    }
+    long word = ~words[index] & (-1L << fromIndex);
+    while (true) {
+      if (word != 0) {
+        return (index << ADDRESS_BITS_PER_WORD) + Long.numberOfTrailingZeros(word);
+      }
+      if (++index == wordsInUse) {
+        return wordsInUse << ADDRESS_BITS_PER_WORD;
+      }
+      word = ~words[index];
+    }
+  }
+
+  // Moves bits from the index up by count, bits in [index, index + count) are zero
+  private void insertBits(int index, int count) {
+    if (index >= wordsInUse << ADDRESS_BITS_PER_WORD) {
+      return;
+    }
+    int newWordsInUse = wordIndex((wordsInUse << ADDRESS_BITS_PER_WORD) + count - 1) + 1;
+    ensureWords(newWordsInUse);
+    int indexWord = wordIndex(index);
+    long saved = words[indexWord];
+    int firstWord = wordIndex(index + count);
+    // From high to low, sources are never overwritten before read
+    for (int i = newWordsInUse - 1; i >= firstWord; i--) {
+      words[i] = readBits((i << ADDRESS_BITS_PER_WORD) - count);
+    }
+    for (int i = indexWord; i < firstWord; i++) {
+      words[i] = 0;
+    }
+    words[firstWord] &= -1L << (index + count);
+    words[indexWord] |= saved & ~(-1L << index);
+    wordsInUse = newWordsInUse;
+    recalculateWordsInUse();
+  }
+
+  // Removes bits in [fromIndex, toIndex), moves following bits down
+  private void removeBits(int fromIndex, int toIndex) {
+    if (fromIndex >= toIndex || fromIndex >= wordsInUse << ADDRESS_BITS_PER_WORD) {
+      return;
+    }
+    int count = toIndex - fromIndex;
+    int fromWord = wordIndex(fromIndex);
+    long saved = words[fromWord];
+    // From low to high, sources are never overwritten before read
+    for (int i = fromWord; i < wordsInUse; i++) {
+      words[i] = readBits((i << ADDRESS_BITS_PER_WORD) + count);
+    }
+    long keep = -1L << fromIndex;
+    words[fromWord] = (words[fromWord] & keep) | (saved & ~keep);
+    recalculateWordsInUse();
+  }
+
+  // Position operations
+
+  // Inserts count positions out of the set at the position
+  private void insertAbsent(int position, int count) {
+    if (!inverted) {
+      insertBits(position, count);
+    } else if (position < limit) {
+      insertBits(position, count);
+      setBits(position, position + count);
+      limit += count;
+    }
+  }
+
+  // Deletes positions in [start, end), moves following positions down
+  private void deletePositions(int start, int end) {
+    if (!inverted) {
+      removeBits(start, end);
+    } else {
+      end = Math.min(end, limit);
+      if (start < end) {
+        removeBits(start, end);
+        limit -= end - start;
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(int position) {
+    if (position < 0) {
+      return false;
+    } else if (inverted) {
+      return position < limit && !getBit(position);
+    } else {
+      return getBit(position);
+    }
+  }
+
+  @Override
+  public boolean add(int position) {
+    if (position < 0 || contains(position)) {
+      return false;
+    }
+    if (!inverted) {
+      setBit(position);
+    } else if (position < limit) {
+      clearBit(position);
+    } else {
+      // Positions between limit and the position are still out of the set
+      setBits(limit, position);
+      limit = position + 1;
+    }
+    size++;
+    return true;
+  }
+
+  @Override
+  public boolean remove(int position) {
+    if (!contains(position)) {
+      return false;
+    }
+    if (inverted) {
+      setBit(position);
+    } else {
+      clearBit(position);
+    }
+    size--;
+    return true;
+  }
+
+  @Override
+  public int addRange(int start, int end) {
+    start = Math.max(start, 0);
+    if (start >= end) {
+      return 0;
+    }
+    int added;
+    if (!inverted) {
+      added = (end - start) - countBits(start, end);
+      setBits(start, end);
+    } else if (end <= limit) {
+      added = countBits(start, end);
+      clearBits(start, end);
+    } else {
+      // Positions between limit and start are still out of the set
+      added = countBits(start, limit) + (end - Math.max(start, limit));
+      clearBits(start, limit);
+      setBits(limit, start);
+      limit = end;
+    }
+    size += added;
+    return added;
+  }
+
+  @Override
+  public void clear() {
+    if (ContainerHelpers.shouldShrink(0, words.length)) {
+      words = new long[ContainerHelpers.shrinkSize(0)];
+    } else {
+      Arrays.fill(words, 0, wordsInUse, 0);
+    }
+    wordsInUse = 0;
+    size = 0;
+    inverted = false;
+    limit = 0;
+  }
+
+  @Override
+  public boolean removeRange(int start, int end) {
+    start = Math.max(start, 0);
+    int removed;
+    if (inverted) {
+      end = Math.min(end, limit);
+      if (start >= end) {
+        return false;
+      }
+      removed = (end - start) - countBits(start, end);
+      setBits(start, end);
+    } else {
+      removed = countBits(start, end);
+      clearBits(start, end);
+    }
+    size -= removed;
+    return removed != 0;
+  }
+
+  @Override
+  public boolean shift(int start, int end, int diff) {
+    int first = ceiling(start);
+    if (first == -1 || first >= end) {
+      return false;
+    }
+
+    // Positions after span are out of the set, no need to move them
+    end = Math.min(end, span());
+    if (diff > 0) {
+      insertAbsent(start, diff);
+      deletePositions(end + diff, end + diff + diff);
+    } else {
+      deletePositions(start + diff, start);
+      insertAbsent(end + diff, -diff);
+    }
+    return true;
+  }
+
+  @Override
+  public int countRange(int start, int end) {
+    start = Math.max(start, 0);
+    if (inverted) {
+      end = Math.min(end, limit);
+      return start < end ? (end - start) - countBits(start, end) : 0;
+    } else {
+      return countBits(start, end);
+    }
+  }
+
+  @Override
+  public int runEnd(int position) {
+    if (inverted) {
+      int result = nextSetBit(position);
+      return result != -1 && result < limit ? result : limit;
+    } else {
+      return nextClearBit(position);
+    }
+  }
+
+  @Override
+  public int ceiling(int position) {
+    position = Math.max(position, 0);
+    if (inverted) {
+      if (position >= limit) {
+        return -1;
+      }
+      int result = nextClearBit(position);
+      return result < limit ? result : -1;
+    } else {
+      return nextSetBit(position);
+    }
+  }
+
+  @Override
+  public void trimToSize() {
+    int length = Math.max(1, wordsInUse);
+    if (words.length != length) {
+      words = Arrays.copyOf(words, length);
+    }
+  }
+
+  @Override
+  public long memoryBytes() {
+    return 8L * words.length;
+  }
+
+  @Override
+  public int[] toArray() {
+    int[] result = new int[size];
+    int index = 0;
+    for (int position = ceiling(0); position != -1; position = ceiling(position + 1)) {
+      result[index++] = position;
+    }
+    return result;
+  }
+}
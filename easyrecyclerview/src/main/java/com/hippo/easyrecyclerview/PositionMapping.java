@@ -0,0 +1,342 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import java.util.Arrays;
+
+/**
+ * Adapter updates composed into one mapping, from positions before them
+ * to positions after them. Composing an update costs {@code O(segments)}.
+ * {@link OrderedIntArray} maps all positions in one pass, instead of shifting
+ * {@code O(checked)} positions for each update. Other sets shift runs or words,
+ * they replay updates one by one.
+ * <p>
+ * It keeps segments sorted by old position. A segment maps
+ * {@code [oldStart, oldStart + length)} to {@code [newStart, newStart + length)}.
+ * Old positions in no segment are dropped.
+ */
+class PositionMapping {
+
+  private static final int OP_CHANGED = 0;
+  private static final int OP_RANGE_CHANGED = 1;
+  private static final int OP_INSERTED = 2;
+  private static final int OP_REMOVED = 3;
+  private static final int OP_MOVED = 4;
+
+  private static final int OP_SIZE = 4;
+
+  // The updates, for sets which apply them one by one cheaply
+  private int[] ops = new int[OP_SIZE * 8];
+  private int opSize;
+
+  private int[] oldStarts = new int[4];
+  private int[] newStarts = new int[4];
+  private int[] lengths = new int[4];
+  private int size;
+
+  // The update to compose, up to two pieces of positions after previous updates.
+  // A piece shifts [start, end) by diff, or drops it.
+  private final long[] pieceStarts = new long[2];
+  private final long[] pieceEnds = new long[2];
+  private final int[] pieceDiffs = new int[2];
+  private final boolean[] pieceDrops = new boolean[2];
+
+  private boolean identity;
+  private boolean structural;
+  private boolean removed;
+
+  public PositionMapping() {
+    reset();
+  }
+
+  /**
+   * Makes it identity again.
+   */
+  public void reset() {
+    if (oldStarts.length == 0) {
+      oldStarts = new int[4];
+      newStarts = new int[4];
+      lengths = new int[4];
+    }
+    opSize = 0;
+    size = 1;
+    oldStarts[0] = 0;
+    newStarts[0] = 0;
+    lengths[0] = Integer.MAX_VALUE;
+    identity = true;
+    structural = false;
+    removed = false;
+  }
+
+  /**
+   * Returns {@code true} if no update is composed.
+   */
+  public boolean isIdentity() {
+    return identity;
+  }
+
+  /**
+   * Returns {@code true} if items are inserted, removed or moved,
+   * so positions of items might change.
+   */
+  public boolean isStructural() {
+    return structural;
+  }
+
+  /**
+   * Returns {@code true} if items are removed, or the whole data set is changed.
+   */
+  public boolean hasRemoved() {
+    return removed;
+  }
+
+  /**
+   * Returns the count of updates.
+   */
+  public int updateCount() {
+    return opSize / OP_SIZE;
+  }
+
+  /**
+   * Returns the count of segments.
+   */
+  int segmentCount() {
+    return size;
+  }
+
+  int segmentOldStart(int index) {
+    return oldStarts[index];
+  }
+
+  int segmentNewStart(int index) {
+    return newStarts[index];
+  }
+
+  int segmentLength(int index) {
+    return lengths[index];
+  }
+
+  /**
+   * Returns the position before the updates of the item at {@code newPosition},
+   * or {@code -1} if no position maps to it, in {@code O(segments)}.
+   */
+  public int getOldPosition(int newPosition) {
+    for (int i = 0; i < size; i++) {
+      long offset = (long) newPosition - newStarts[i];
+      if (offset >= 0 && offset < lengths[i]) {
+        return (int) (oldStarts[i] + offset);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * The whole data set is changed, all positions are dropped.
+   */
+  public void onChanged() {
+    addOp(OP_CHANGED, 0, 0, 0);
+    size = 0;
+    identity = false;
+    structural = true;
+    removed = true;
+  }
+
+  /**
+   * Items in the range are changed, their positions are dropped.
+   */
+  public void onItemRangeChanged(int positionStart, int itemCount) {
+    addOp(OP_RANGE_CHANGED, positionStart, itemCount, 0);
+    setPiece(0, positionStart, (long) positionStart + itemCount, 0, true);
+    compose(1);
+  }
+
+  public void onItemRangeInserted(int positionStart, int itemCount) {
+    addOp(OP_INSERTED, positionStart, itemCount, 0);
+    setPiece(0, positionStart, Integer.MAX_VALUE, itemCount, false);
+    compose(1);
+    structural = true;
+  }
+
+  public void onItemRangeRemoved(int positionStart, int itemCount) {
+    addOp(OP_REMOVED, positionStart, itemCount, 0);
+    long positionEnd = (long) positionStart + itemCount;
+    setPiece(0, positionStart, positionEnd, 0, true);
+    setPiece(1, positionEnd, Integer.MAX_VALUE, -itemCount, false);
+    compose(2);
+    structural = true;
+    removed = true;
+  }
+
+  /**
+   * {@code toPosition} is the new position of the first item, like {@link PositionSet#move}.
+   */
+  public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+    addOp(OP_MOVED, fromPosition, toPosition, itemCount);
+    long lo;
+    long mid;
+    long hi;
+    if (fromPosition < toPosition) {
+      lo = fromPosition;
+      mid = (long) fromPosition + itemCount;
+      hi = (long) toPosition + itemCount;
+    } else {
+      lo = toPosition;
+      mid = fromPosition;
+      hi = (long) fromPosition + itemCount;
+    }
+    setPiece(0, lo, mid, (int) (hi - mid), false);
+    setPiece(1, mid, hi, (int) (lo - mid), false);
+    compose(2);
+    structural = true;
+  }
+
+  private void addOp(int op, int arg1, int arg2, int arg3) {
+    if (opSize == ops.length) {
+      ops = Arrays.copyOf(ops, ContainerHelpers.growSize(opSize / OP_SIZE) * OP_SIZE);
+    }
+    ops[opSize] = op;
+    ops[opSize + 1] = arg1;
+    ops[opSize + 2] = arg2;
+    ops[opSize + 3] = arg3;
+    opSize += OP_SIZE;
+  }
+
+  private void setPiece(int index, long start, long end, int diff, boolean drop) {
+    pieceStarts[index] = start;
+    pieceEnds[index] = end;
+    pieceDiffs[index] = diff;
+    pieceDrops[index] = drop;
+  }
+
+  // Maps the new side of all segments by the pieces.
+  // Segments split at piece bounds, old positions keep ascending.
+  private void compose(int pieceCount) {
+    identity = false;
+
+    int capacity = size * (2 * pieceCount + 1);
+    int[] resultOld = new int[capacity];
+    int[] resultNew = new int[capacity];
+    int[] resultLength = new int[capacity];
+    int count = 0;
+
+    for (int i = 0; i < size; i++) {
+      long newStart = newStarts[i];
+      long newEnd = newStart + lengths[i];
+      long position = newStart;
+      while (position < newEnd) {
+        // The piece the position is in, and where it ends
+        long next = newEnd;
+        int diff = 0;
+        boolean drop = false;
+        for (int j = 0; j < pieceCount; j++) {
+          if (position >= pieceStarts[j] && position < pieceEnds[j]) {
+            diff = pieceDiffs[j];
+            drop = pieceDrops[j];
+            next = Math.min(next, pieceEnds[j]);
+          } else if (pieceStarts[j] > position) {
+            next = Math.min(next, pieceStarts[j]);
+          }
+        }
+
+        if (!drop) {
+          int oldStart = (int) (oldStarts[i] + (position - newStart));
+          long mappedStart = position + diff;
+          // Clip the open end
+          int length = (int) Math.min(next - position, Integer.MAX_VALUE - mappedStart);
+          if (length > 0) {
+            int last = count - 1;
+            if (last >= 0 && resultOld[last] + (long) resultLength[last] == oldStart
+                && resultNew[last] + (long) resultLength[last] == mappedStart) {
+              resultLength[last] += length;
+            } else {
+              resultOld[count] = oldStart;
+              resultNew[count] = (int) mappedStart;
+              resultLength[count] = length;
+              count++;
+            }
+          }
+        }
+        position = next;
+      }
+    }
+
+    oldStarts = resultOld;
+    newStarts = resultNew;
+    lengths = resultLength;
+    size = count;
+  }
+
+  /**
+   * Checks positions after the updates which no position before them maps to,
+   * the inserted items, changed items and all items after {@link #onChanged()},
+   * in {@code [0, itemCount)}. Returns {@code true} if check state changes.
+   */
+  public boolean checkUnmapped(ChoiceState state, int itemCount) {
+    // Segments in new position order, moves break old position order
+    long[] order = new long[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = ((long) newStarts[i] << 32) | i;
+    }
+    Arrays.sort(order);
+
+    boolean changed = false;
+    long position = 0;
+    for (int k = 0; k < size && position < itemCount; k++) {
+      int i = (int) order[k];
+      int newStart = newStarts[i];
+      if (newStart > position) {
+        int end = Math.min(newStart, itemCount);
+        changed |= state.setRangeChecked((int) position, (int) (end - position), true) != 0;
+      }
+      position = Math.max(position, (long) newStart + lengths[i]);
+    }
+    if (position < itemCount) {
+      changed |= state.setRangeChecked((int) position, (int) (itemCount - position), true) != 0;
+    }
+    return changed;
+  }
+
+  /**
+   * Applies the updates to the state one by one.
+   * Returns {@code true} if check state changes.
+   */
+  public boolean replay(ChoiceState state) {
+    boolean changed = false;
+    for (int i = 0; i < opSize; i += OP_SIZE) {
+      int arg1 = ops[i + 1];
+      int arg2 = ops[i + 2];
+      switch (ops[i]) {
+        case OP_CHANGED:
+          changed |= state.onChanged();
+          break;
+        case OP_RANGE_CHANGED:
+          changed |= state.onItemRangeChanged(arg1, arg2);
+          break;
+        case OP_INSERTED:
+          changed |= state.onItemRangeInserted(arg1, arg2);
+          break;
+        case OP_REMOVED:
+          changed |= state.onItemRangeRemoved(arg1, arg2);
+          break;
+        case OP_MOVED:
+          changed |= state.onItemRangeMoved(arg1, arg2, ops[i + 3]);
+          break;
+      }
+    }
+    return changed;
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import java.util.Arrays;
+
+/**
+ * A set of non-negative positions, the storage behind {@link ChoiceState}.
+ * <p>
+ * Reads never change the content, at most a search hint, so a set which isn't
+ * written any more can be read from any thread.
+ */
+abstract class PositionSet {
+
+  /**
+   * Returns a copy of the set. Writes to one of them don't affect the other.
+   */
+  public abstract PositionSet copy();
+
+  /**
+   * Returns the count of positions in the set.
+   */
+  public abstract int size();
+
+  /**
+   * Returns {@code true} if the position is in the set.
+   */
+  public abstract boolean contains(int position);
+
+  /**
+   * Adds the position. Returns {@code true} if the set changes.
+   */
+  public abstract boolean add(int position);
+
+  /**
+   * Removes the position. Returns {@code true} if the set changes.
+   */
+  public abstract boolean remove(int position);
+
+  /**
+   * Adds all positions in {@code [start, end)} in one pass.
+   * Returns the count of positions added.
+   */
+  public abstract int addRange(int start, int end);
+
+  /**
+   * Removes all positions.
+   */
+  public abstract void clear();
+
+  /**
+   * Removes all positions in {@code [start, end)}.
+   * Returns {@code true} if the set changes.
+   */
+  public abstract boolean removeRange(int start, int end);
+
+  /**
+   * Adds {@code diff} to all positions in {@code [start, end)}.
+   * Positions out of the range must not be in {@code [start + diff, end + diff)}.
+   * Returns {@code true} if any position is shifted.
+   */
+  public abstract boolean shift(int start, int end, int diff);
+
+  /**
+   * Moves positions in {@code [from, from + count)} to {@code [to, to + count)},
+   * positions between them are shifted to fill the gap,
+   * like moving {@code count} items from {@code from} to {@code to} in a list.
+   * Returns {@code true} if any position changes.
+   * <p>
+   * It collects positions in the moved block, then shifts and adds them back.
+   * Subclasses may override it with a faster way.
+   */
+  public boolean move(int from, int to, int count) {
+    if (count <= 0 || from == to) {
+      return false;
+    }
+
+    // Collect positions in the moved block
+    int[] block = null;
+    int blockSize = 0;
+    int end = from + count;
+    for (int position = ceiling(from); position != -1 && position < end;
+        position = ceiling(position + 1)) {
+      if (block == null) {
+        block = new int[8];
+      } else if (blockSize == block.length) {
+        block = Arrays.copyOf(block, ContainerHelpers.growSize(blockSize));
+      }
+      block[blockSize++] = position;
+    }
+    if (blockSize != 0) {
+      removeRange(from, end);
+    }
+
+    boolean result;
+    if (from < to) {
+      result = shift(end, to + count, -count);
+    } else {
+      result = shift(to, from, count);
+    }
+
+    // Add them back, a run of positions at a time
+    int diff = to - from;
+    for (int i = 0; i < blockSize;) {
+      int start = block[i];
+      int runEnd = start + 1;
+      for (i++; i < blockSize && block[i] == runEnd; i++) {
+        runEnd++;
+      }
+      addRange(start + diff, runEnd + diff);
+    }
+
+    return result || blockSize != 0;
+  }
+
+  /**
+   * Returns the least position greater than or equal to the position,
+   * or {@code -1} if there is no such position.
+   */
+  public abstract int ceiling(int position);
+
+  /**
+   * Returns the end of the run of consecutive positions starting at the position,
+   * the least position greater than it and not in the set.
+   * The position must be in the set.
+   * <p>
+   * With {@link #ceiling(int)}, runs can be walked without expanding them.
+   * Subclasses may override it with a faster way.
+   */
+  public int runEnd(int position) {
+    int end = position + 1;
+    while (contains(end)) {
+      end++;
+    }
+    return end;
+  }
+
+  /**
+   * Returns the count of positions in {@code [start, end)}.
+   * <p>
+   * It walks runs in the range. Subclasses may override it with a faster way.
+   */
+  public int countRange(int start, int end) {
+    int count = 0;
+    int position = ceiling(start);
+    while (position != -1 && position < end) {
+      int runEnd = Math.min(runEnd(position), end);
+      count += runEnd - position;
+      position = ceiling(runEnd);
+    }
+    return count;
+  }
+
+  /**
+   * Makes room for the count of positions, before adding many positions at once.
+   * The default does nothing.
+   */
+  public void reserve(int count) {}
+
+  /**
+   * Releases spare capacity. The default does nothing.
+   */
+  public void trimToSize() {}
+
+  /**
+   * Returns bytes taken by the arrays of the set, for memory accounting.
+   */
+  public abstract long memoryBytes();
+
+  /**
+   * Returns all positions in ascending order.
+   */
+  public abstract int[] toArray();
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import android.support.v7.widget.RecyclerView;
+
+/**
+ * A {@link RecyclerView.RecycledViewPool} shared by several {@link EasyRecyclerView}s,
+ * like horizontal lists nested in a vertical one. View holders recycled by one of them
+ * are reused by the others, instead of each inflating its own.
+ * <p>
+ * Adapters of those views must agree on view types.
+ * A view holder is wired to the {@code EasyRecyclerView} it's attached to,
+ * so item clicks go to the right one after it moves between them.
+ * <p>
+ * Use it on the main thread.
+ */
+public final class SharedRecycledViewPool {
+
+  private final RecyclerView.RecycledViewPool pool = new RecyclerView.RecycledViewPool();
+
+  /**
+   * Sets the max count of recycled view holders of the view type.
+   * Size it for all views sharing it, like visible items of a nested list
+   * times nested lists recycled at once.
+   */
+  public void setMaxRecycledViews(int viewType, int max) {
+    pool.setMaxRecycledViews(viewType, max);
+  }
+
+  /**
+   * Returns the count of recycled view holders of the view type.
+   */
+  public int getRecycledViewCount(int viewType) {
+    return pool.getRecycledViewCount(viewType);
+  }
+
+  /**
+   * Lets the {@code EasyRecyclerView} share the pool.
+   * Call it before setting an adapter to the view.
+   */
+  public void attach(EasyRecyclerView view) {
+    view.setRecycledViewPool(pool);
+  }
+
+  /**
+   * Gives the {@code EasyRecyclerView} its own pool again.
+   * Ignores it if the view isn't sharing the pool.
+   */
+  public void detach(EasyRecyclerView view) {
+    if (view.getRecycledViewPool() == pool) {
+      view.setRecycledViewPool(null);
+    }
+  }
+
+  /**
+   * Drops all recycled view holders.
+   */
+  public void clear() {
+    pool.clear();
+  }
+
+  /**
+   * Returns the underlying pool.
+   */
+  public RecyclerView.RecycledViewPool getRecycledViewPool() {
+    return pool;
+  }
+}
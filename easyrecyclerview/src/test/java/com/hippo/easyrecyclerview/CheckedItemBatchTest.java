@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class CheckedItemBatchTest {
+
+  // Item ids are 100 + position
+  private static class IdAdapter implements ItemIds {
+
+    private final int count;
+
+    IdAdapter(int count) {
+      this.count = count;
+    }
+
+    @Override
+    public int getItemCount() {
+      return count;
+    }
+
+    @Override
+    public long getItemId(int position) {
+      return 100 + position;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+      return true;
+    }
+  }
+
+  @Test
+  public void testApplyInOrder() {
+    for (int storage = ChoiceState.STORAGE_ADAPTIVE; storage <= ChoiceState.STORAGE_BITSET; storage++) {
+      ChoiceState state = new ChoiceState(storage);
+      state.setChecked(50, true);
+
+      CheckedItemBatch batch = new CheckedItemBatch();
+      batch.clearAll();
+      for (int i = 10; i < 20; i++) {
+        batch.setItemChecked(i, true);
+      }
+      batch.setItemsChecked(12, 3, false);
+      batch.setItemCheckedById(130, true);
+      batch.setItemCheckedById(131, true);
+      // Out of the item count
+      batch.setItemsChecked(38, 10, true);
+
+      assertTrue(batch.applyTo(state, new IdAdapter(40)));
+      assertArrayEquals(new int[] {10, 11, 15, 16, 17, 18, 19, 30, 31, 38, 39},
+          state.getCheckedItemPositions());
+      assertEquals(0, batch.dirtyStart);
+      assertEquals(Integer.MAX_VALUE, batch.dirtyEnd);
+
+      // Checking checked items changes nothing
+      CheckedItemBatch again = new CheckedItemBatch();
+      again.setItemsChecked(10, 2, true);
+      again.setItemCheckedById(130, true);
+      assertFalse(again.applyTo(state, new IdAdapter(40)));
+    }
+  }
+
+  @Test
+  public void testDirtyRange() {
+    ChoiceState state = new ChoiceState();
+    CheckedItemBatch batch = new CheckedItemBatch();
+    batch.setItemsChecked(20, 5, true);
+    batch.setItemCheckedById(103, true);
+    batch.setItemsChecked(0, 3, false);
+    assertTrue(batch.applyTo(state, new IdAdapter(100)));
+    assertEquals(3, batch.dirtyStart);
+    assertEquals(25, batch.dirtyEnd);
+  }
+
+  @Test
+  public void testIdChoiceState() {
+    IdAdapter adapter = new IdAdapter(10);
+    IdChoiceState state = new IdChoiceState(adapter);
+    CheckedItemBatch batch = new CheckedItemBatch();
+    batch.setItemsChecked(0, 3, true);
+    batch.setItemCheckedById(101, false);
+    batch.setItemCheckedById(108, true);
+    assertTrue(batch.applyTo(state, adapter));
+    assertArrayEquals(new int[] {0, 2, 8}, state.getCheckedItemPositions());
+  }
+
+  @Test
+  public void testPosted() {
+    CheckedItemBatch batch = new CheckedItemBatch();
+    assertTrue(batch.isEmpty());
+    batch.setItemChecked(1, true);
+    assertFalse(batch.isEmpty());
+    batch.markPosted();
+    try {
+      batch.setItemChecked(2, true);
+      fail();
+    } catch (IllegalStateException e) {
+      // Ignore
+    }
+    try {
+      batch.markPosted();
+      fail();
+    } catch (IllegalStateException e) {
+      // Ignore
+    }
+  }
+
+  @Test
+  public void testConcurrentWorkers() throws InterruptedException {
+    final CheckedItemBatchQueue queue = new CheckedItemBatchQueue();
+    // Drains asked for by posts, like Handler.post() of EasyRecyclerView
+    final AtomicInteger drainRequests = new AtomicInteger();
+    final AtomicBoolean done = new AtomicBoolean();
+    final Thread[] workers = new Thread[4];
+    for (int i = 0; i < workers.length; i++) {
+      final int worker = i;
+      workers[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 100; j++) {
+            CheckedItemBatch batch = new CheckedItemBatch();
+            batch.setItemsChecked((worker * 100 + j) * 10, 5, true);
+            if (queue.post(batch)) {
+              drainRequests.incrementAndGet();
+            }
+          }
+        }
+      };
+      workers[i].start();
+    }
+
+    // The main thread
+    Thread joiner = new Thread() {
+      @Override
+      public void run() {
+        for (Thread worker : workers) {
+          try {
+            worker.join();
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+        done.set(true);
+      }
+    };
+    joiner.start();
+    ChoiceState state = new ChoiceState();
+    IdAdapter adapter = new IdAdapter(4000);
+    int drains = 0;
+    while (!done.get() || drainRequests.get() != 0) {
+      if (drainRequests.get() != 0) {
+        drainRequests.decrementAndGet();
+        queue.applyTo(state, adapter);
+        drains++;
+      }
+    }
+    joiner.join();
+
+    // Every posted batch is applied by a requested drain
+    assertEquals(2000, state.getCheckedItemCount());
+    assertEquals(400, state.getCheckedItemCount(0, 800));
+    assertTrue(drains <= 400);
+    assertFalse(queue.applyTo(state, adapter));
+  }
+
+  @Test
+  public void testClearQueue() {
+    CheckedItemBatchQueue queue = new CheckedItemBatchQueue();
+    CheckedItemBatch batch = new CheckedItemBatch();
+    batch.setItemChecked(1, true);
+    assertTrue(queue.post(batch));
+    CheckedItemBatch another = new CheckedItemBatch();
+    another.setItemChecked(2, true);
+    assertFalse(queue.post(another));
+    assertTrue(queue.clear());
+
+    ChoiceState state = new ChoiceState();
+    assertFalse(queue.applyTo(state, new IdAdapter(10)));
+    // A drain is asked for again
+    CheckedItemBatch third = new CheckedItemBatch();
+    third.setItemChecked(3, true);
+    assertTrue(queue.post(third));
+    assertTrue(queue.applyTo(state, new IdAdapter(10)));
+    assertArrayEquals(new int[] {3}, state.getCheckedItemPositions());
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class CheckedItemSnapshotTest {
+
+  @Test
+  public void testSnapshotNeverChanges() {
+    for (int storage = ChoiceState.STORAGE_ADAPTIVE; storage <= ChoiceState.STORAGE_BITSET; storage++) {
+      ChoiceState state = new ChoiceState(storage);
+      state.setRangeChecked(10, 5, true);
+      state.setChecked(30, true);
+      CheckedItemSnapshot snapshot = new CheckedItemSnapshot(state.share());
+      int[] expected = {10, 11, 12, 13, 14, 30};
+
+      state.onItemRangeInserted(0, 3);
+      state.setChecked(0, true);
+      state.onItemRangeRemoved(12, 2);
+      state.onItemRangeMoved(0, 20, 2);
+      assertArrayEquals(expected, snapshot.getCheckedItemPositions());
+      assertEquals(6, snapshot.getCheckedItemCount());
+      assertEquals(3, snapshot.getCheckedItemCount(13, 100));
+      assertTrue(snapshot.isChecked(30));
+      assertFalse(snapshot.isChecked(0));
+
+      // Another snapshot, then clear
+      int[] positions = state.getCheckedItemPositions();
+      CheckedItemSnapshot second = new CheckedItemSnapshot(state.share());
+      state.clear();
+      state.checkAll(5);
+      assertArrayEquals(positions, second.getCheckedItemPositions());
+      assertArrayEquals(new int[] {0, 1, 2, 3, 4}, state.getCheckedItemPositions());
+      assertArrayEquals(expected, snapshot.getCheckedItemPositions());
+    }
+  }
+
+  @Test
+  public void testForEachCheckedRange() {
+    ChoiceState state = new ChoiceState();
+    state.setRangeChecked(3, 4, true);
+    state.setChecked(9, true);
+    CheckedItemSnapshot snapshot = new CheckedItemSnapshot(state.share());
+
+    final StringBuilder sb = new StringBuilder();
+    snapshot.forEachCheckedRange(new EasyRecyclerView.CheckedRangeCallback() {
+      @Override
+      public void onCheckedRange(int positionStart, int itemCount) {
+        sb.append(positionStart).append('+').append(itemCount).append(' ');
+      }
+    });
+    assertEquals("3+4 9+1 ", sb.toString());
+  }
+
+  @Test
+  public void testIds() {
+    IdChoiceState state = new IdChoiceState(null);
+    state.setCheckedById(5, true);
+    state.setCheckedById(-7, true);
+    CheckedItemSnapshot snapshot = new CheckedItemSnapshot(state.shareIds());
+    state.setCheckedById(5, false);
+    state.setCheckedById(8, true);
+
+    assertTrue(snapshot.hasIds());
+    assertEquals(2, snapshot.getCheckedItemCount());
+    assertTrue(snapshot.isCheckedById(5));
+    assertFalse(snapshot.isCheckedById(8));
+    assertFalse(state.setCheckedById(8, true));
+    try {
+      snapshot.getCheckedItemPositions();
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ChoiceMetricsTest {
+
+  @Test
+  public void testBucketOf() {
+    assertEquals(0, ChoiceMetrics.bucketOf(0));
+    assertEquals(1, ChoiceMetrics.bucketOf(1));
+    assertEquals(2, ChoiceMetrics.bucketOf(2));
+    assertEquals(2, ChoiceMetrics.bucketOf(3));
+    assertEquals(3, ChoiceMetrics.bucketOf(4));
+    assertEquals(11, ChoiceMetrics.bucketOf(1024));
+    assertEquals(ChoiceMetrics.HISTOGRAM_BUCKET_COUNT - 1,
+        ChoiceMetrics.bucketOf(Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void testCounters() {
+    ChoiceMetrics metrics = new ChoiceMetrics();
+    metrics.onAdapterUpdate(EasyRecyclerView.ChoiceMetricsSink.UPDATE_INSERTED, 100);
+    metrics.onAdapterUpdate(EasyRecyclerView.ChoiceMetricsSink.UPDATE_INSERTED, 300);
+    metrics.onAdapterUpdate(EasyRecyclerView.ChoiceMetricsSink.UPDATE_REMOVED, -1);
+    metrics.onQueueApplied(500);
+    metrics.onViewsRefreshed(8, 50);
+    metrics.onCheckedStateChanged(0, 1);
+    metrics.onCheckedStateChanged(5, 3);
+
+    assertEquals(2, metrics.getUpdateCount(EasyRecyclerView.ChoiceMetricsSink.UPDATE_INSERTED));
+    assertEquals(400, metrics.getUpdateNanos(EasyRecyclerView.ChoiceMetricsSink.UPDATE_INSERTED));
+    assertEquals(1, metrics.getUpdateCount(EasyRecyclerView.ChoiceMetricsSink.UPDATE_REMOVED));
+    assertEquals(0, metrics.getUpdateNanos(EasyRecyclerView.ChoiceMetricsSink.UPDATE_REMOVED));
+    assertEquals(1, metrics.getQueuedUpdateCount());
+    assertEquals(500, metrics.getMaxTransformNanos());
+    assertEquals(1, metrics.getQueueApplyCount());
+    assertEquals(8, metrics.getRefreshedViewCount());
+    assertEquals(2, metrics.getCheckedStateChangeCount());
+    assertEquals(4, metrics.getListenerCallbackCount());
+    assertEquals(1, metrics.getCheckedCountHistogram(0));
+    assertEquals(1, metrics.getCheckedCountHistogram(3));
+
+    metrics.reset();
+    assertEquals(0, metrics.getUpdateCount(EasyRecyclerView.ChoiceMetricsSink.UPDATE_INSERTED));
+    assertEquals(0, metrics.getCheckedCountHistogram(3));
+    assertEquals(0, metrics.getMaxTransformNanos());
+  }
+}
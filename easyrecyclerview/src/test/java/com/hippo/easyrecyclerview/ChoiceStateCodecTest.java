@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class ChoiceStateCodecTest {
+
+  private static final int[] STORAGES = {
+      ChoiceState.STORAGE_ADAPTIVE,
+      ChoiceState.STORAGE_SPARSE,
+      ChoiceState.STORAGE_RUNS,
+      ChoiceState.STORAGE_TREE,
+      ChoiceState.STORAGE_BITSET,
+  };
+
+  @Test
+  public void testRoundTrip() {
+    Random random = new Random(9);
+    for (int storage : STORAGES) {
+      ChoiceState state = new ChoiceState(storage);
+      for (int i = 0; i < 2000; i++) {
+        int start = random.nextInt(100000);
+        state.setRangeChecked(start, 1 + random.nextInt(random.nextBoolean() ? 3 : 300), true);
+      }
+      state.setChecked(0, true);
+
+      ChoiceState decoded = ChoiceStateCodec.decode(ChoiceStateCodec.encode(state));
+      assertEquals(storage, decoded.getStorage());
+      assertArrayEquals(state.getCheckedItemPositions(), decoded.getCheckedItemPositions());
+    }
+  }
+
+  @Test
+  public void testEmpty() {
+    ChoiceState decoded = ChoiceStateCodec.decode(ChoiceStateCodec.encode(new ChoiceState()));
+    assertEquals(0, decoded.getCheckedItemCount());
+  }
+
+  @Test
+  public void testCompact() {
+    // One run costs a few bytes whatever its length
+    ChoiceState state = new ChoiceState();
+    state.checkAll(1000000);
+    assertTrue(ChoiceStateCodec.encode(state).length <= 8);
+
+    // A scattered position costs about two bytes
+    state = new ChoiceState();
+    for (int i = 0; i < 1000; i++) {
+      state.setChecked(i * 10, true);
+    }
+    assertTrue(ChoiceStateCodec.encode(state).length <= 2 * 1000 + 8);
+  }
+
+  @Test
+  public void testIds() {
+    IdChoiceState state = new IdChoiceState(null);
+    long[] ids = {Long.MIN_VALUE, -3, 0, 1, 42, 1L << 40, Long.MAX_VALUE};
+    for (long id : ids) {
+      state.setCheckedById(id, true);
+    }
+
+    ChoiceState decoded = ChoiceStateCodec.decode(ChoiceStateCodec.encode(state));
+    assertTrue(decoded instanceof IdChoiceState);
+    long[] decodedIds = ((IdChoiceState) decoded).getCheckedItemIds();
+    Arrays.sort(decodedIds);
+    assertArrayEquals(ids, decodedIds);
+  }
+
+  @Test
+  public void testStream() throws IOException {
+    ChoiceState state = new ChoiceState();
+    state.setRangeChecked(5, 10, true);
+    state.setChecked(100, true);
+
+    // Two states back to back, as in a file
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ChoiceStateCodec.write(state, out);
+    ChoiceStateCodec.write(state, out);
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    assertArrayEquals(state.getCheckedItemPositions(),
+        ChoiceStateCodec.read(in).getCheckedItemPositions());
+    assertArrayEquals(state.getCheckedItemPositions(),
+        ChoiceStateCodec.read(in).getCheckedItemPositions());
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void testInvalid() {
+    byte[] bytes = ChoiceStateCodec.encode(new ChoiceState());
+
+    byte[] unknownVersion = bytes.clone();
+    unknownVersion[0] = ChoiceStateCodec.VERSION + 1;
+    try {
+      ChoiceStateCodec.decode(unknownVersion);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+
+    try {
+      ChoiceStateCodec.decode(Arrays.copyOf(bytes, 1));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+}
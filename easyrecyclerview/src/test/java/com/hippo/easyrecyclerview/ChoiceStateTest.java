@@ -25,6 +25,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import org.junit.Test;
 
 public class ChoiceStateTest {
@@ -227,4 +230,438 @@ public class ChoiceStateTest {
         true,
         new int[] {0, 3, 7, 12});
   }
+
+  @Test
+  public void testAdaptiveStorage() {
+    ChoiceState state = new ChoiceState();
+    for (int i = 0; i < 1000; i++) {
+      state.setChecked(i, true);
+    }
+    assertTrue(state.isRunsMode());
+    assertEquals(1000, state.getCheckedItemCount());
+
+    // Punch holes until runs are denser than positions
+    for (int i = 0; i < 1000; i += 2) {
+      state.setChecked(i, false);
+    }
+    assertFalse(state.isRunsMode());
+    assertEquals(500, state.getCheckedItemCount());
+    assertTrue(state.isChecked(999));
+    assertFalse(state.isChecked(998));
+  }
+
+  @Test
+  public void testAdaptiveCheckAllLarge() {
+    ChoiceState state = new ChoiceState();
+    state.setChecked(3, true);
+    state.setChecked(10, true);
+    PositionSet snapshot = state.share();
+
+    // One run, not five million positions
+    assertEquals(5000000 - 2, state.checkAll(5000000));
+    assertTrue(state.isRunsMode());
+    assertEquals(5000000, state.getCheckedItemCount());
+    assertTrue(state.getMemoryBytes() < 1024);
+    assertEquals(2, snapshot.size());
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] result = new int[list.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = list.get(i);
+    }
+    return result;
+  }
+
+  private static int[] checkedPositions(List<Boolean> model) {
+    List<Integer> positions = new ArrayList<>();
+    for (int i = 0; i < model.size(); i++) {
+      if (model.get(i)) {
+        positions.add(i);
+      }
+    }
+    return toArray(positions);
+  }
+
+  @Test
+  public void testStoragesMatchModel() {
+    Random random = new Random(0x5eed);
+    ChoiceState[] states = {
+        new ChoiceState(ChoiceState.STORAGE_ADAPTIVE),
+        new ChoiceState(ChoiceState.STORAGE_SPARSE),
+        new ChoiceState(ChoiceState.STORAGE_RUNS),
+        new ChoiceState(ChoiceState.STORAGE_TREE),
+        new ChoiceState(ChoiceState.STORAGE_BITSET),
+    };
+    List<Boolean> model = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      model.add(false);
+    }
+
+    for (int step = 0; step < 5000; step++) {
+      int size = model.size();
+      int op = random.nextInt(8);
+      int position = random.nextInt(size);
+      int count = 1 + random.nextInt(Math.min(20, size - position));
+      boolean expected;
+      if (op <= 1) {
+        // Check or uncheck a block, like a drag selection
+        boolean checked = op == 0;
+        int changed = 0;
+        for (int i = position; i < position + count; i++) {
+          if (model.set(i, checked) != checked) {
+            changed++;
+          }
+        }
+        if (random.nextBoolean()) {
+          for (ChoiceState state : states) {
+            assertEquals(changed, state.setRangeChecked(position, count, checked));
+          }
+        } else {
+          for (ChoiceState state : states) {
+            for (int i = position; i < position + count; i++) {
+              state.setChecked(i, checked);
+            }
+          }
+        }
+      } else if (op == 2) {
+        expected = false;
+        for (int i = position; i < position + count; i++) {
+          expected |= model.set(i, false);
+        }
+        for (ChoiceState state : states) {
+          assertEquals(expected, state.onItemRangeChanged(position, count));
+        }
+      } else if (op == 3) {
+        expected = false;
+        for (int i = position; i < size; i++) {
+          expected |= model.get(i);
+        }
+        for (int i = 0; i < count; i++) {
+          model.add(position, false);
+        }
+        for (ChoiceState state : states) {
+          assertEquals(expected, state.onItemRangeInserted(position, count));
+        }
+      } else if (op == 4) {
+        if (size - count < 50) {
+          continue;
+        }
+        expected = false;
+        for (int i = position; i < size; i++) {
+          expected |= model.get(i);
+        }
+        for (int i = 0; i < count; i++) {
+          model.remove(position);
+        }
+        for (ChoiceState state : states) {
+          assertEquals(expected, state.onItemRangeRemoved(position, count));
+        }
+      } else if (op == 5) {
+        int moveCount = random.nextBoolean() ? 1 : count;
+        int to = random.nextInt(size - moveCount + 1);
+        if (to == position) {
+          continue;
+        }
+        expected = false;
+        for (int i = Math.min(position, to), n = Math.max(position, to) + moveCount; i < n; i++) {
+          expected |= model.get(i);
+        }
+        List<Boolean> block = new ArrayList<>(model.subList(position, position + moveCount));
+        model.subList(position, position + moveCount).clear();
+        model.addAll(to, block);
+        for (ChoiceState state : states) {
+          if (moveCount == 1) {
+            assertEquals(expected, state.onItemRangeMoved(position, to));
+          } else {
+            assertEquals(expected, state.onItemRangeMoved(position, to, moveCount));
+          }
+        }
+      } else if (op == 6) {
+        for (ChoiceState state : states) {
+          assertEquals(model.get(position), state.isChecked(position));
+        }
+        continue;
+      } else {
+        if (random.nextInt(20) != 0) {
+          continue;
+        }
+        for (int i = 0; i < size; i++) {
+          model.set(i, true);
+        }
+        for (ChoiceState state : states) {
+          state.checkAll(size);
+        }
+      }
+
+      int[] positions = checkedPositions(model);
+      for (ChoiceState state : states) {
+        assertArrayEquals(positions, state.getCheckedItemPositions());
+        assertEquals(positions.length, state.getCheckedItemCount());
+      }
+    }
+  }
+
+  @Test
+  public void testTreeStorageInsertAtTop() {
+    ChoiceState state = new ChoiceState(ChoiceState.STORAGE_TREE);
+    for (int i = 0; i < 100; i++) {
+      state.setChecked(i, true);
+    }
+    state.setChecked(50, false);
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(state.onItemRangeInserted(0, 3));
+    }
+    assertEquals(99, state.getCheckedItemCount());
+    assertFalse(state.isChecked(2999));
+    assertTrue(state.isChecked(3000));
+    assertTrue(state.isChecked(3049));
+    assertFalse(state.isChecked(3050));
+    assertTrue(state.isChecked(3099));
+    assertTrue(state.onItemRangeRemoved(0, 3000));
+    assertTrue(state.onItemRangeMoved(99, 0));
+    assertFalse(state.isChecked(51));
+    state.setChecked(51, true);
+    assertEquals(100, state.getCheckedItemCount());
+    assertEquals(99, state.getCheckedItemPositions()[99]);
+  }
+
+  @Test
+  public void testBitSetCheckAll() {
+    ChoiceState state = new ChoiceState(ChoiceState.STORAGE_BITSET);
+    state.setChecked(3, true);
+    state.checkAll(100000);
+    assertEquals(100000, state.getCheckedItemCount());
+    state.setChecked(5, false);
+    state.setChecked(70000, false);
+    assertEquals(99998, state.getCheckedItemCount());
+    assertFalse(state.isChecked(5));
+    assertTrue(state.isChecked(99999));
+    assertFalse(state.isChecked(100000));
+
+    // Inserted items aren't checked
+    assertTrue(state.onItemRangeInserted(0, 10));
+    assertFalse(state.isChecked(0));
+    assertFalse(state.isChecked(15));
+    assertTrue(state.isChecked(16));
+    assertTrue(state.isChecked(100009));
+    assertFalse(state.isChecked(100010));
+    assertEquals(99998, state.getCheckedItemCount());
+
+    assertTrue(state.onItemRangeRemoved(0, 20));
+    assertEquals(99989, state.getCheckedItemCount());
+    assertFalse(state.isChecked(69990));
+    assertTrue(state.isChecked(99989));
+    assertFalse(state.isChecked(99990));
+  }
+
+  @Test
+  public void testCheckAllKeepsPositionsAfterItems() {
+    for (int storage = ChoiceState.STORAGE_ADAPTIVE; storage <= ChoiceState.STORAGE_BITSET; storage++) {
+      ChoiceState state = new ChoiceState(storage);
+      state.setChecked(2, true);
+      state.setChecked(20, true);
+      state.setChecked(30, true);
+      assertEquals(9, state.checkAll(10));
+      assertEquals(12, state.getCheckedItemCount());
+      assertTrue(state.isChecked(9));
+      assertFalse(state.isChecked(10));
+      assertTrue(state.isChecked(20));
+      assertTrue(state.isChecked(30));
+      assertEquals(0, state.checkAll(10));
+      assertEquals(0, state.checkAll(0));
+      assertEquals(12, state.getCheckedItemCount());
+
+      // Dense, adaptive storage uses the bitset
+      state = new ChoiceState(storage);
+      for (int i = 0; i < 3000; i += 2) {
+        state.setChecked(i, true);
+      }
+      state.setChecked(5000, true);
+      assertEquals(1000, state.checkAll(2000));
+      assertEquals(2000 + 500 + 1, state.getCheckedItemCount());
+      assertTrue(state.isChecked(1999));
+      assertFalse(state.isChecked(2001));
+      assertTrue(state.isChecked(2002));
+      assertTrue(state.isChecked(5000));
+
+      // No position after the items
+      state = new ChoiceState(storage);
+      state.setChecked(7, true);
+      assertEquals(0, state.checkAll(0));
+      assertEquals(9, state.checkAll(10));
+      assertEquals(10, state.getCheckedItemCount());
+    }
+  }
+
+  @Test
+  public void testNegativePositions() {
+    for (int storage = ChoiceState.STORAGE_ADAPTIVE; storage <= ChoiceState.STORAGE_BITSET; storage++) {
+      ChoiceState state = new ChoiceState(storage);
+      assertFalse(state.isChecked(-2));
+      assertEquals(-1, state.nextCheckedPosition(-2));
+
+      state.setRangeChecked(3, 5, true);
+      state.setChecked(20, true);
+      assertFalse(state.isChecked(-1));
+      assertFalse(state.isChecked(-2));
+      assertFalse(state.isChecked(Integer.MIN_VALUE));
+      assertEquals(3, state.nextCheckedPosition(-1));
+      assertEquals(3, state.nextCheckedPosition(-2));
+      assertEquals(3, state.nextCheckedPosition(Integer.MIN_VALUE));
+      assertEquals(0, state.getCheckedItemCount(-10, 10));
+      assertEquals(6, state.getCheckedItemCount());
+    }
+  }
+
+  @Test
+  public void testOnItemRangeMovedMultiple() {
+    for (int storage = ChoiceState.STORAGE_ADAPTIVE; storage <= ChoiceState.STORAGE_BITSET; storage++) {
+      ChoiceState state = new ChoiceState(storage);
+      state.setChecked(0, true);
+      state.setChecked(4, true);
+      state.setChecked(5, true);
+      state.setChecked(8, true);
+      state.setChecked(12, true);
+      // Move [4, 7) to 9
+      assertTrue(state.onItemRangeMoved(4, 9, 3));
+      assertArrayEquals(new int[] {0, 5, 9, 10, 12}, state.getCheckedItemPositions());
+      // Move it back
+      assertTrue(state.onItemRangeMoved(9, 4, 3));
+      assertArrayEquals(new int[] {0, 4, 5, 8, 12}, state.getCheckedItemPositions());
+      // Nothing checked in both block and middle
+      assertFalse(state.onItemRangeMoved(1, 2, 2));
+      assertArrayEquals(new int[] {0, 4, 5, 8, 12}, state.getCheckedItemPositions());
+    }
+  }
+
+  @Test
+  public void testAddAll() {
+    for (int storage = ChoiceState.STORAGE_ADAPTIVE; storage <= ChoiceState.STORAGE_BITSET; storage++) {
+      ChoiceState other = new ChoiceState(ChoiceState.STORAGE_RUNS);
+      other.setRangeChecked(2, 3, true);
+      other.setChecked(10, true);
+      other.setRangeChecked(100, 50, true);
+
+      ChoiceState state = new ChoiceState(storage);
+      state.setChecked(0, true);
+      state.setChecked(3, true);
+      assertEquals(53, state.addAll(other));
+      int[] expected = new int[55];
+      expected[0] = 0;
+      expected[1] = 2;
+      expected[2] = 3;
+      expected[3] = 4;
+      expected[4] = 10;
+      for (int i = 0; i < 50; i++) {
+        expected[5 + i] = 100 + i;
+      }
+      assertArrayEquals(expected, state.getCheckedItemPositions());
+      assertEquals(0, state.addAll(other));
+    }
+  }
+
+  @Test
+  public void testShrinkOnClear() {
+    for (int storage = ChoiceState.STORAGE_ADAPTIVE; storage <= ChoiceState.STORAGE_BITSET; storage++) {
+      ChoiceState state = new ChoiceState(storage);
+      long initialBytes = state.getMemoryBytes();
+      for (int i = 0; i < 100000; i += 2) {
+        state.setChecked(i, true);
+      }
+      long bytes = state.getMemoryBytes();
+      assertTrue(bytes > initialBytes);
+      state.clear();
+      assertTrue(state.getMemoryBytes() <= bytes / 8);
+    }
+  }
+
+  @Test
+  public void testReserveAndTrim() {
+    ChoiceState state = new ChoiceState(ChoiceState.STORAGE_SPARSE);
+    state.reserve(10000);
+    assertTrue(state.getMemoryBytes() >= 4 * 10000);
+    for (int i = 0; i < 10; i++) {
+      state.setChecked(i * 2, true);
+    }
+    state.trimToSize();
+    assertEquals(4 * 10, state.getMemoryBytes());
+    state.setChecked(1, true);
+    assertArrayEquals(new int[] {0, 1, 2, 4, 6, 8, 10, 12, 14, 16, 18},
+        state.getCheckedItemPositions());
+  }
+
+  @Test
+  public void testShrinkOnRemove() {
+    ChoiceState state = new ChoiceState(ChoiceState.STORAGE_SPARSE);
+    for (int i = 0; i < 100000; i += 2) {
+      state.setChecked(i, true);
+    }
+    long bytes = state.getMemoryBytes();
+    state.onItemRangeRemoved(0, 99000);
+    assertTrue(state.getMemoryBytes() < bytes / 4);
+    assertEquals(500, state.getCheckedItemCount());
+    assertTrue(state.isChecked(0));
+    assertTrue(state.isChecked(998));
+  }
+
+  @Test
+  public void testRangeQueries() {
+    Random random = new Random(15);
+    for (int storage = ChoiceState.STORAGE_ADAPTIVE; storage <= ChoiceState.STORAGE_BITSET; storage++) {
+      ChoiceState state = new ChoiceState(storage);
+      boolean[] model = new boolean[600];
+      for (int i = 0; i < 40; i++) {
+        int start = random.nextInt(550);
+        int count = 1 + random.nextInt(random.nextBoolean() ? 2 : 40);
+        boolean checked = random.nextInt(3) != 0;
+        state.setRangeChecked(start, count, checked);
+        for (int j = start; j < start + count; j++) {
+          model[j] = checked;
+        }
+      }
+      if (storage == ChoiceState.STORAGE_BITSET) {
+        // Inverted bits
+        state.clear();
+        state.checkAll(500);
+        state.setChecked(7, false);
+        for (int j = 0; j < model.length; j++) {
+          model[j] = j < 500 && j != 7;
+        }
+      }
+
+      for (int k = 0; k < 200; k++) {
+        int start = random.nextInt(620);
+        int count = random.nextInt(100);
+        int expected = 0;
+        for (int j = start; j < Math.min(start + count, model.length); j++) {
+          if (model[j]) {
+            expected++;
+          }
+        }
+        assertEquals(expected, state.getCheckedItemCount(start, count));
+      }
+
+      // Walk runs
+      int checked = 0;
+      int start = state.nextCheckedPosition(0);
+      int previousEnd = 0;
+      while (start != -1) {
+        int end = state.checkedRunEnd(start);
+        for (int j = previousEnd; j < start; j++) {
+          assertFalse(model[j]);
+        }
+        for (int j = start; j < end; j++) {
+          assertTrue(model[j]);
+        }
+        checked += end - start;
+        previousEnd = end;
+        start = state.nextCheckedPosition(end);
+      }
+      for (int j = previousEnd; j < model.length; j++) {
+        assertFalse(model[j]);
+      }
+      assertEquals(state.getCheckedItemCount(), checked);
+    }
+  }
 }
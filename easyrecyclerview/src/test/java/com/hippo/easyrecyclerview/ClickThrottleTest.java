@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ClickThrottleTest {
+
+  @Test
+  public void testInterval() {
+    ClickThrottle throttle = new ClickThrottle();
+    assertFalse(throttle.isEnabled());
+    assertTrue(throttle.tryClick(1, 0));
+    assertTrue(throttle.tryClick(1, 0));
+
+    throttle.setIntervals(500, 0);
+    assertTrue(throttle.isEnabled());
+    assertTrue(throttle.tryClick(1, 1000));
+    assertFalse(throttle.tryClick(2, 1200));
+    // Dropped clicks don't extend the interval
+    assertTrue(throttle.tryClick(2, 1500));
+  }
+
+  @Test
+  public void testItemInterval() {
+    ClickThrottle throttle = new ClickThrottle();
+    throttle.setIntervals(0, 1000);
+    assertTrue(throttle.tryClick(1, 0));
+    assertTrue(throttle.tryClick(2, 10));
+    assertFalse(throttle.tryClick(1, 20));
+    assertFalse(throttle.tryClick(2, 500));
+    assertTrue(throttle.tryClick(1, 1000));
+    assertFalse(throttle.tryClick(1, 1999));
+    assertTrue(throttle.tryClick(2, 1010));
+  }
+
+  @Test
+  public void testItemSlots() {
+    ClickThrottle throttle = new ClickThrottle();
+    throttle.setIntervals(0, 1000);
+    for (int i = 0; i < ClickThrottle.ITEM_SLOT_COUNT; i++) {
+      assertTrue(throttle.tryClick(i, i));
+    }
+    for (int i = 0; i < ClickThrottle.ITEM_SLOT_COUNT; i++) {
+      assertFalse(throttle.tryClick(i, 100));
+    }
+    // The oldest item falls out
+    assertTrue(throttle.tryClick(100, 200));
+    assertTrue(throttle.tryClick(0, 300));
+    assertFalse(throttle.tryClick(2, 300));
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class ContainerHelpersTest {
+
+  @Test
+  public void testSearchMatchLinearScan() {
+    Random random = new Random(13);
+    for (int size = 0; size < 70; size++) {
+      int[] array = new int[size + 3];
+      int value = -5;
+      for (int i = 0; i < size; i++) {
+        value += 1 + random.nextInt(3);
+        array[i] = value;
+      }
+
+      for (int probe = -7; probe <= value + 2; probe++) {
+        int lower = 0;
+        while (lower < size && array[lower] < probe) {
+          lower++;
+        }
+        int upper = lower;
+        while (upper < size && array[upper] <= probe) {
+          upper++;
+        }
+        assertEquals(lower, ContainerHelpers.lowerBound(array, size, probe));
+        assertEquals(upper, ContainerHelpers.upperBound(array, size, probe));
+        assertEquals(upper != lower ? lower : ~lower, ContainerHelpers.binarySearch(array, size, probe));
+        for (int hint = -1; hint <= size + 1; hint++) {
+          assertEquals(lower, ContainerHelpers.lowerBound(array, size, probe, hint));
+          assertEquals(upper, ContainerHelpers.upperBound(array, size, probe, hint));
+        }
+      }
+    }
+  }
+}
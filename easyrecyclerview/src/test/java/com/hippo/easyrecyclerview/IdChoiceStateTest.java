@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class IdChoiceStateTest {
+
+  // Item ids are 100 + position, fails for positions out of the items
+  private static class Items implements ItemIds {
+
+    private final int count;
+    int idQueries;
+
+    Items(int count) {
+      this.count = count;
+    }
+
+    @Override
+    public int getItemCount() {
+      return count;
+    }
+
+    @Override
+    public long getItemId(int position) {
+      if (position < 0 || position >= count) {
+        throw new IndexOutOfBoundsException("position = " + position);
+      }
+      idQueries++;
+      return 100 + position;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+      return true;
+    }
+  }
+
+  @Test
+  public void testRangesClampedToItems() {
+    Items items = new Items(10);
+    IdChoiceState state = new IdChoiceState(items);
+
+    assertEquals(3, state.setRangeChecked(7, Integer.MAX_VALUE - 7, true));
+    assertEquals(2, state.setRangeChecked(-5, 7, true));
+    assertArrayEquals(new int[] {0, 1, 7, 8, 9}, state.getCheckedItemPositions());
+
+    items.idQueries = 0;
+    // Like EasyRecyclerView.getCheckedItemCount(int, int) to the end
+    assertEquals(4, state.getCheckedItemCount(1, Integer.MAX_VALUE - 1));
+    assertTrue(items.idQueries <= 9);
+    assertEquals(2, state.getCheckedItemCount(-3, 5));
+  }
+
+  @Test
+  public void testPositionsOutOfItems() {
+    Items items = new Items(10);
+    IdChoiceState state = new IdChoiceState(items);
+    state.setChecked(9, true);
+
+    assertFalse(state.isChecked(-1));
+    assertFalse(state.isChecked(10));
+    state.setChecked(-1, true);
+    state.setChecked(10, true);
+    state.setChecked(10, false);
+    assertArrayEquals(new int[] {9}, state.getCheckedItemPositions());
+  }
+
+  @Test
+  public void testIsCheckedPending() {
+    Items items = new Items(10);
+    IdChoiceState state = new IdChoiceState(items);
+    state.setCheckedById(105, true);
+
+    // The adapter already has two new items at the top, ids are read from it
+    PositionMapping mapping = new PositionMapping();
+    mapping.onItemRangeInserted(0, 2);
+    assertTrue(state.isChecked(mapping, 5, false));
+    assertFalse(state.isChecked(mapping, 1, false));
+    assertTrue(state.isChecked(mapping, 1, true));
+    assertFalse(state.isChecked(mapping, 6, true));
+  }
+}
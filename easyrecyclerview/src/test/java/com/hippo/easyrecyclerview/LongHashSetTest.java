@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class LongHashSetTest {
+
+  @Test
+  public void testZeroKey() {
+    LongHashSet set = new LongHashSet();
+    assertFalse(set.contains(0));
+    assertTrue(set.add(0));
+    assertFalse(set.add(0));
+    assertTrue(set.contains(0));
+    assertEquals(1, set.size());
+    assertArrayEquals(new long[] {0}, set.toArray());
+    assertTrue(set.remove(0));
+    assertFalse(set.remove(0));
+    assertEquals(0, set.size());
+  }
+
+  @Test
+  public void testMatchHashSet() {
+    Random random = new Random(7);
+    LongHashSet set = new LongHashSet();
+    Set<Long> expected = new HashSet<>();
+    for (int i = 0; i < 100000; i++) {
+      // Small range for many collisions and removals
+      long key = random.nextInt(2000) - 1000;
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(key), set.remove(key));
+      } else {
+        assertEquals(expected.add(key), set.add(key));
+      }
+      assertEquals(expected.size(), set.size());
+    }
+    for (long key = -1000; key < 1000; key++) {
+      assertEquals(expected.contains(key), set.contains(key));
+    }
+
+    long[] keys = set.toArray();
+    Arrays.sort(keys);
+    long[] expectedKeys = new long[expected.size()];
+    int index = 0;
+    for (long key : expected) {
+      expectedKeys[index++] = key;
+    }
+    Arrays.sort(expectedKeys);
+    assertArrayEquals(expectedKeys, keys);
+
+    set.clear();
+    assertEquals(0, set.size());
+    assertFalse(set.contains(keys.length > 0 ? keys[0] : 1));
+  }
+
+  @Test
+  public void testCapacity() {
+    LongHashSet set = new LongHashSet();
+    set.reserve(10000);
+    long reserved = set.memoryBytes();
+    for (long i = 1; i <= 10000; i++) {
+      set.add(i * 31);
+    }
+    assertEquals(reserved, set.memoryBytes());
+
+    for (long i = 11; i <= 10000; i++) {
+      set.remove(i * 31);
+    }
+    set.trimToSize();
+    assertTrue(set.memoryBytes() < reserved / 100);
+    assertEquals(10, set.size());
+    for (long i = 1; i <= 10; i++) {
+      assertTrue(set.contains(i * 31));
+    }
+
+    set.reserve(10000);
+    set.clear();
+    assertTrue(set.memoryBytes() < reserved / 100);
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class OnScreenViewsTest {
+
+  // Views at positions, -1 for a view without a known position
+  static class Views extends OnScreenViews {
+
+    final int[] positions;
+    final boolean[] checked;
+    final int[] setCounts;
+
+    Views(int... positions) {
+      this.positions = positions;
+      checked = new boolean[positions.length];
+      setCounts = new int[positions.length];
+    }
+
+    @Override
+    int getViewCount() {
+      return positions.length;
+    }
+
+    @Override
+    int getViewPosition(int index) {
+      return positions[index];
+    }
+
+    @Override
+    void setViewChecked(int index, boolean checked) {
+      this.checked[index] = checked;
+      setCounts[index]++;
+    }
+
+    void bind(ChoiceState state) {
+      for (int i = 0; i < positions.length; i++) {
+        if (positions[i] >= 0) {
+          checked[i] = state.isChecked(positions[i]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSingleItemRefreshesOneView() {
+    ChoiceState state = new ChoiceState();
+    Views views = new Views(10, 11, 12, 13, 14, 15, 16, 17);
+    views.bind(state);
+
+    state.setChecked(13, true);
+    assertEquals(1, views.refresh(state, 13, 14));
+    assertEquals(1, views.getRefreshCount());
+    assertTrue(views.checked[3]);
+    for (int i = 0; i < views.positions.length; i++) {
+      assertEquals(i == 3 ? 1 : 0, views.setCounts[i]);
+    }
+
+    // Off screen
+    state.setChecked(40, true);
+    assertEquals(0, views.refresh(state, 40, 41));
+    assertEquals(1, views.getRefreshCount());
+  }
+
+  @Test
+  public void testRefreshRange() {
+    ChoiceState state = new ChoiceState();
+    Views views = new Views(3, -1, 4, 5, 6);
+    state.setRangeChecked(0, 5, true);
+
+    assertEquals(2, views.refresh(state, 0, 5));
+    assertTrue(views.checked[0]);
+    assertEquals(0, views.setCounts[1]);
+    assertTrue(views.checked[2]);
+    assertFalse(views.checked[3]);
+
+    assertEquals(4, views.refresh(state, 0, Integer.MAX_VALUE));
+    assertEquals(6, views.getRefreshCount());
+  }
+
+  @Test
+  public void testInsertAtUncheckedItem() {
+    // Check all including unloaded items, except item 3
+    ChoiceState state = new ChoiceState();
+    state.checkAll(8);
+    state.setChecked(3, false);
+    Views views = new Views(0, 1, 2, 3, 4, 5, 6, 7);
+    views.bind(state);
+
+    // Two items inserted at 3 are checked, as the observer does
+    state.onItemRangeInserted(3, 2);
+    state.setRangeChecked(3, 2, true);
+    assertTrue(state.isChecked(3));
+    assertFalse(state.isChecked(5));
+
+    // Before layout the unchecked view still reports position 3, it must not be refreshed.
+    // Layout moves it to 5 and binds new views at 3 and 4.
+    assertFalse(views.checked[3]);
+    Views laidOut = new Views(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+    for (int i = 0; i < 3; i++) {
+      laidOut.checked[i] = views.checked[i];
+    }
+    for (int i = 3; i < 8; i++) {
+      laidOut.checked[i + 2] = views.checked[i];
+    }
+    laidOut.checked[3] = state.isChecked(3);
+    laidOut.checked[4] = state.isChecked(4);
+
+    for (int i = 0; i < laidOut.positions.length; i++) {
+      assertEquals(state.isChecked(i), laidOut.checked[i]);
+    }
+    assertFalse(laidOut.checked[5]);
+  }
+
+  @Test
+  public void testUncheckAll() {
+    ChoiceState state = new ChoiceState();
+    Views views = new Views(0, 1, -1);
+    state.setRangeChecked(0, 2, true);
+    views.bind(state);
+
+    assertEquals(2, views.uncheckAll());
+    assertFalse(views.checked[0]);
+    assertFalse(views.checked[1]);
+    assertEquals(0, views.setCounts[2]);
+    assertEquals(2, views.getRefreshCount());
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.easyrecyclerview;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class PositionMappingTest {
+
+  @Test
+  public void testSameAsUpdatesOneByOne() {
+    Random random = new Random(7);
+    for (int storage = ChoiceState.STORAGE_ADAPTIVE; storage <= ChoiceState.STORAGE_BITSET; storage++) {
+      for (int round = 0; round < 50; round++) {
+        int count = 200;
+        ChoiceState expected = new ChoiceState(storage);
+        ChoiceState actual = new ChoiceState(storage);
+        for (int i = 0; i < 60; i++) {
+          int start = random.nextInt(count);
+          int length = 1 + random.nextInt(8);
+          expected.setRangeChecked(start, Math.min(length, count - start), true);
+          actual.setRangeChecked(start, Math.min(length, count - start), true);
+        }
+
+        PositionMapping mapping = new PositionMapping();
+        boolean changed = false;
+        for (int i = 0; i < 20; i++) {
+          // Only inserts and removes keep positions in order
+          int op = random.nextInt(round % 2 == 0 ? 4 : 2);
+          int start = random.nextInt(count);
+          int length = 1 + random.nextInt(Math.min(10, count - start));
+          switch (op) {
+            case 0:
+              changed |= expected.onItemRangeInserted(start, length);
+              mapping.onItemRangeInserted(start, length);
+              count += length;
+              break;
+            case 1:
+              changed |= expected.onItemRangeRemoved(start, length);
+              mapping.onItemRangeRemoved(start, length);
+              count -= length;
+              break;
+            case 2: {
+              int to = random.nextInt(count - length + 1);
+              changed |= expected.onItemRangeMoved(start, to, length);
+              mapping.onItemRangeMoved(start, to, length);
+              break;
+            }
+            case 3:
+              changed |= expected.onItemRangeChanged(start, length);
+              mapping.onItemRangeChanged(start, length);
+              break;
+          }
+          if (count < 20) {
+            count += 50;
+            expected.onItemRangeInserted(0, 50);
+            mapping.onItemRangeInserted(0, 50);
+          }
+        }
+
+        // Reading through the mapping is the same as applying it
+        for (int position = 0; position < count; position++) {
+          assertEquals(expected.isChecked(position), actual.isChecked(mapping, position, false));
+        }
+
+        boolean actualChanged = actual.applyMapping(mapping);
+        assertArrayEquals(expected.getCheckedItemPositions(), actual.getCheckedItemPositions());
+        if (actual.set instanceof OrderedIntArray) {
+          OrderedIntArray array = (OrderedIntArray) actual.set;
+          int runCount = array.runCount;
+          array.countRuns();
+          assertEquals(array.runCount, runCount);
+        }
+        if (!changed) {
+          assertFalse(actualChanged);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCompose() {
+    PositionMapping mapping = new PositionMapping();
+    assertTrue(mapping.isIdentity());
+    assertEquals(1, mapping.segmentCount());
+
+    // Inserting at the top again and again is still one segment
+    for (int i = 0; i < 100; i++) {
+      mapping.onItemRangeInserted(0, 1);
+    }
+    assertEquals(1, mapping.segmentCount());
+    assertTrue(mapping.isStructural());
+    assertFalse(mapping.hasRemoved());
+
+    ChoiceState state = new ChoiceState();
+    state.setRangeChecked(0, 10, true);
+    assertTrue(state.applyMapping(mapping));
+    assertEquals(100, state.nextCheckedPosition(0));
+    assertEquals(10, state.getCheckedItemCount());
+
+    mapping.reset();
+    mapping.onItemRangeInserted(5, 3);
+    mapping.onItemRangeRemoved(5, 3);
+    mapping.onItemRangeInserted(200, 1);
+    mapping.onItemRangeRemoved(200, 1);
+    assertEquals(1, mapping.segmentCount());
+    assertTrue(mapping.hasRemoved());
+    // Nothing moves
+    ChoiceState sparse = new ChoiceState(ChoiceState.STORAGE_SPARSE);
+    sparse.setRangeChecked(0, 10, true);
+    assertFalse(sparse.applyMapping(mapping));
+
+    mapping.reset();
+    mapping.onChanged();
+    assertTrue(state.applyMapping(mapping));
+    assertEquals(0, state.getCheckedItemCount());
+  }
+
+  @Test
+  public void testRunCountAfterDroppedTail() {
+    // Coalesced onChanged() leaves no segment
+    ChoiceState state = new ChoiceState(ChoiceState.STORAGE_SPARSE);
+    for (int position : new int[] {1, 3, 5, 8}) {
+      state.setChecked(position, true);
+    }
+    PositionMapping mapping = new PositionMapping();
+    for (int i = 0; i < ChoiceState.MIN_MAP_UPDATES - 1; i++) {
+      mapping.onItemRangeInserted(100, 1);
+    }
+    mapping.onChanged();
+    assertTrue(state.applyMapping(mapping));
+    assertEquals(0, state.getCheckedItemCount());
+    assertEquals(0, ((OrderedIntArray) state.set).runCount);
+
+    // Removing the tail
+    state = new ChoiceState(ChoiceState.STORAGE_SPARSE);
+    for (int position : new int[] {1, 2, 5, 9, 10}) {
+      state.setChecked(position, true);
+    }
+    mapping.reset();
+    mapping.onItemRangeInserted(0, 1);
+    mapping.onItemRangeRemoved(0, 1);
+    mapping.onItemRangeInserted(0, 1);
+    mapping.onItemRangeRemoved(5, 100);
+    assertTrue(state.applyMapping(mapping));
+    assertArrayEquals(new int[] {2, 3}, state.getCheckedItemPositions());
+    assertEquals(1, ((OrderedIntArray) state.set).runCount);
+  }
+
+  @Test
+  public void testCheckUnmapped() {
+    PositionMapping mapping = new PositionMapping();
+    mapping.onItemRangeInserted(0, 2);
+    mapping.onItemRangeRemoved(5, 2);
+    mapping.onItemRangeInserted(10, 3);
+    mapping.onItemRangeMoved(0, 20, 2);
+
+    ChoiceState state = new ChoiceState();
+    state.setChecked(2, true);
+    state.applyMapping(mapping);
+    assertArrayEquals(new int[] {2}, state.getCheckedItemPositions());
+    assertTrue(mapping.checkUnmapped(state, 24));
+    assertArrayEquals(new int[] {2, 8, 9, 10, 20, 21}, state.getCheckedItemPositions());
+    assertFalse(mapping.checkUnmapped(state, 24));
+
+    mapping.reset();
+    mapping.onChanged();
+    state.applyMapping(mapping);
+    assertTrue(mapping.checkUnmapped(state, 5));
+    assertEquals(5, state.getCheckedItemCount());
+  }
+
+  @Test
+  public void testIsCheckedPending() {
+    PositionMapping mapping = new PositionMapping();
+    assertEquals(7, mapping.getOldPosition(7));
+    mapping.onItemRangeInserted(0, 2);
+    mapping.onItemRangeRemoved(5, 2);
+    mapping.onItemRangeInserted(10, 3);
+    mapping.onItemRangeMoved(0, 20, 2);
+    assertEquals(2, mapping.getOldPosition(2));
+    assertEquals(5, mapping.getOldPosition(3));
+    assertEquals(-1, mapping.getOldPosition(8));
+    assertEquals(10, mapping.getOldPosition(11));
+    assertEquals(-1, mapping.getOldPosition(20));
+    assertEquals(19, mapping.getOldPosition(22));
+
+    for (boolean checkUnmapped : new boolean[] {false, true}) {
+      ChoiceState pending = new ChoiceState();
+      ChoiceState applied = new ChoiceState();
+      for (int position : new int[] {2, 4, 5, 19}) {
+        pending.setChecked(position, true);
+        applied.setChecked(position, true);
+      }
+      applied.applyMapping(mapping);
+      if (checkUnmapped) {
+        mapping.checkUnmapped(applied, 24);
+      }
+      for (int position = 0; position < 24; position++) {
+        assertEquals(applied.isChecked(position),
+            pending.isChecked(mapping, position, checkUnmapped));
+      }
+    }
+  }
+
+  @Test
+  public void testChangedOnly() {
+    PositionMapping mapping = new PositionMapping();
+    mapping.onItemRangeChanged(3, 2);
+    assertFalse(mapping.isStructural());
+
+    ChoiceState state = new ChoiceState();
+    state.setRangeChecked(0, 10, true);
+    assertTrue(state.applyMapping(mapping));
+    assertArrayEquals(new int[] {0, 1, 2, 5, 6, 7, 8, 9}, state.getCheckedItemPositions());
+  }
+}